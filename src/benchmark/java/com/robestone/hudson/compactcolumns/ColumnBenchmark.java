@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Renders the cells of a view of synthetic jobs - one operation is one whole view.
+ * Run with "-prof gc" to see the allocation rate as well.
+ *
+ * @author jacob robertson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnBenchmark {
+
+	@Param({"100"})
+	public int jobCount;
+
+	/**
+	 * How many builds each job keeps.
+	 */
+	@Param({"10", "100", "5000"})
+	public int depth;
+
+	/**
+	 * "F" never has a stable build, so it is the one that has to go looking for aborted builds.
+	 */
+	@Param({"SSFFUFUS", "F"})
+	public String shape;
+
+	private List<Job<?, ?>> jobs;
+	private List<BuildInfo> builds;
+	private AllStatusesColumn statusesColumn;
+	private JobNameColorColumn jobNameColumn;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setUp() {
+		long now = System.currentTimeMillis();
+		jobs = new ArrayList<Job<?, ?>>();
+		for (int i = 0; i < jobCount; i++) {
+			jobs.add(SyntheticJobs.createJob("job" + i, shape, depth, now));
+		}
+		statusesColumn = new AllStatusesColumn(AbstractCompactColumn.colorblindHint_Underline, false, null, 0, 0);
+		jobNameColumn = new JobNameColorColumn(true, true, true, AbstractCompactColumn.colorblindHint_Underline);
+		builds = new ArrayList<BuildInfo>();
+		for (Job<?, ?> job : jobs) {
+			builds.addAll(statusesColumn.getBuilds(job, Locale.US));
+		}
+		pool = new ForkJoinPool();
+	}
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * With the status snapshots already cached, as on a busy controller.
+	 */
+	@Benchmark
+	public void getBuilds(Blackhole bh) {
+		for (Job<?, ?> job : jobs) {
+			bh.consume(statusesColumn.getBuilds(job, Locale.US));
+		}
+	}
+	/**
+	 * With nothing cached, as after a restart.
+	 */
+	@Benchmark
+	public void getBuildsCold(Blackhole bh) {
+		for (Job<?, ?> job : jobs) {
+			JobStatusCache.remove(job);
+			bh.consume(statusesColumn.getBuilds(job, Locale.US));
+		}
+	}
+	/**
+	 * The same as {@link #getBuildsCold}, spread over all the cores.
+	 */
+	@Benchmark
+	public void getBuildsColdParallel(Blackhole bh) {
+		for (Job<?, ?> job : jobs) {
+			JobStatusCache.remove(job);
+		}
+		bh.consume(ParallelBuilds.compute(statusesColumn, jobs, Locale.US, pool));
+	}
+	@Benchmark
+	public void getBuildDescriptionToolTip(Blackhole bh) {
+		for (BuildInfo build : builds) {
+			bh.consume(AbstractStatusesColumn.getBuildDescriptionToolTip(build, Locale.US));
+		}
+	}
+	@Benchmark
+	public void getStyle(Blackhole bh) {
+		for (Job<?, ?> job : jobs) {
+			bh.consume(jobNameColumn.getStyle(job));
+		}
+	}
+	@Benchmark
+	public void getJobToolTip(Blackhole bh) {
+		for (Job<?, ?> job : jobs) {
+			bh.consume(jobNameColumn.getToolTip(job, Locale.US));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import hudson.model.BuildHistory;
+import hudson.model.Job;
+import hudson.model.Result;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Jobs with made-up build histories of any depth, for the benchmarks.  The fake job in
+ * CompactColumnsTest needs PowerMock to stand in for Hudson, which can't run inside a JMH fork,
+ * so here the history is a plain proxy and the job a nice mock that only hands it out.
+ *
+ * @author jacob robertson
+ */
+final class SyntheticJobs {
+
+	private SyntheticJobs() {
+	}
+
+	/**
+	 * @param shape one letter per build, most recent first, repeated until the history is deep enough -
+	 * S(table), U(nstable), F(ailed) or A(borted), as in CompactColumnsTest
+	 */
+	@SuppressWarnings("rawtypes")
+	static Job<?, ?> createJob(String name, String shape, int depth, long now) {
+		Result[] results = new Result[depth];
+		for (int i = 0; i < depth; i++) {
+			results[i] = toResult(shape.charAt(i % shape.length()));
+		}
+		BuildHistory history = createHistory(results, now);
+		Job job = createNiceMock(Job.class);
+		expect(job.getBuildHistoryData()).andReturn(history).anyTimes();
+		expect(job.getFullName()).andReturn(name).anyTimes();
+		expect(job.getDescription()).andReturn("Synthetic job " + name).anyTimes();
+		replay(job);
+		return job;
+	}
+	private static Result toResult(char c) {
+		switch (c) {
+			case 'S':
+				return Result.SUCCESS;
+			case 'U':
+				return Result.UNSTABLE;
+			case 'F':
+				return Result.FAILURE;
+			case 'A':
+				return Result.ABORTED;
+			default:
+				throw new IllegalArgumentException("Unknown build result: " + c);
+		}
+	}
+	@SuppressWarnings("rawtypes")
+	private static BuildHistory createHistory(Result[] results, long now) {
+		BuildHistory.Record[] records = new BuildHistory.Record[results.length];
+		for (int i = 0; i < results.length; i++) {
+			records[i] = (BuildHistory.Record) Proxy.newProxyInstance(SyntheticJobs.class.getClassLoader(),
+					new Class<?>[] {BuildHistory.Record.class}, new RecordHandler(records, results, i, now));
+		}
+		return (BuildHistory) Proxy.newProxyInstance(SyntheticJobs.class.getClassLoader(),
+				new Class<?>[] {BuildHistory.class}, new HistoryHandler(records, results));
+	}
+
+	/**
+	 * Index 0 is the most recent build.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static class RecordHandler implements InvocationHandler {
+		private final BuildHistory.Record[] records;
+		private final Result[] results;
+		private final int index;
+		private final long time;
+
+		RecordHandler(BuildHistory.Record[] records, Result[] results, int index, long now) {
+			this.records = records;
+			this.results = results;
+			this.index = index;
+			this.time = now - (index + 1) * AbstractStatusesColumn.ONE_HOUR_MS;
+		}
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if ("getNumber".equals(name)) {
+				return results.length - index;
+			} else if ("getResult".equals(name)) {
+				return results[index];
+			} else if ("getTimeInMillis".equals(name)) {
+				return time;
+			} else if ("getDuration".equals(name)) {
+				return AbstractStatusesColumn.ONE_MINUTE_MS;
+			} else if ("isBuilding".equals(name)) {
+				return false;
+			} else if ("getPrevious".equals(name)) {
+				return (index + 1 < records.length ? records[index + 1] : null);
+			} else if ("getNext".equals(name)) {
+				return (index > 0 ? records[index - 1] : null);
+			} else if ("getBuild".equals(name)) {
+				throw new IllegalStateException("Benchmarks should never load a build");
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("toString".equals(name)) {
+				return "record:" + (results.length - index);
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class HistoryHandler implements InvocationHandler {
+		private final BuildHistory.Record[] records;
+		private final Result[] results;
+
+		HistoryHandler(BuildHistory.Record[] records, Result[] results) {
+			this.records = records;
+			this.results = results;
+		}
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if ("getLast".equals(name) || "getLastCompleted".equals(name)) {
+				return (records.length > 0 ? records[0] : null);
+			} else if ("getFirst".equals(name)) {
+				return (records.length > 0 ? records[records.length - 1] : null);
+			} else if ("getLastFailed".equals(name)) {
+				return find(Result.FAILURE);
+			} else if ("getLastUnstable".equals(name)) {
+				return find(Result.UNSTABLE);
+			} else if ("getLastStable".equals(name)) {
+				return find(Result.SUCCESS);
+			} else if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			} else if ("equals".equals(name)) {
+				return proxy == args[0];
+			} else if ("toString".equals(name)) {
+				return "history:" + records.length;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+		private BuildHistory.Record find(Result result) {
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == result) {
+					return records[i];
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.math.BigDecimal;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.TimeAgoType;
+
+/**
+ * The time strings of a view's worth of builds, spread over the last month.  The "uncached"
+ * benchmarks are how the strings used to be made, to compare against.
+ *
+ * @author jacob robertson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeAgoBenchmark {
+
+	@Param({"DIFF", "PREFER_DATES", "PREFER_DATE_TIME"})
+	public TimeAgoType timeAgoType;
+
+	private long[] timestamps;
+	private Locale[] locales;
+
+	@Setup
+	public void setUp() {
+		long now = System.currentTimeMillis();
+		timestamps = new long[1000];
+		for (int i = 0; i < timestamps.length; i++) {
+			timestamps[i] = now - (i * 7919L * AbstractStatusesColumn.ONE_MINUTE_MS) % (30 * AbstractStatusesColumn.ONE_DAY_MS);
+		}
+		locales = Locale.getAvailableLocales();
+	}
+
+	@Benchmark
+	public void getTimeAgoString(Blackhole bh) {
+		for (long timestamp : timestamps) {
+			bh.consume(AbstractStatusesColumn.getTimeAgoString(Locale.US, timestamp, false, timeAgoType));
+		}
+	}
+	@Benchmark
+	public void getShortTimestamp(Blackhole bh) {
+		long now = System.currentTimeMillis();
+		for (long timestamp : timestamps) {
+			bh.consume(AbstractStatusesColumn.getShortTimestamp(now - timestamp));
+		}
+	}
+	@Benchmark
+	public void getShortTimestampUncached(Blackhole bh) {
+		long now = System.currentTimeMillis();
+		for (long timestamp : timestamps) {
+			bh.consume(getShortTimestampWithBigDecimal(now - timestamp));
+		}
+	}
+	/**
+	 * Every available locale, as in CompactColumnsTest.testNoBadLocale.
+	 */
+	@Benchmark
+	public void getBuildTimeStringAllLocales(Blackhole bh) {
+		for (Locale locale : locales) {
+			bh.consume(AbstractStatusesColumn.getBuildTimeString(timestamps[0], locale));
+		}
+	}
+	@Benchmark
+	public void getBuildTimeStringAllLocalesUncached(Blackhole bh) {
+		Date time = new Date(timestamps[0]);
+		for (Locale locale : locales) {
+			DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT, locale);
+			DateFormat dateFormat = new SimpleDateFormat(DateFormats.toFourDigitYearPattern(
+					DateFormat.getDateInstance(DateFormat.SHORT, locale), locale), locale);
+			bh.consume(timeFormat.format(time) + ", " + dateFormat.format(time));
+		}
+	}
+
+	/**
+	 * How getShortTimestamp used to work.
+	 */
+	private static String getShortTimestampWithBigDecimal(float time) {
+		long[] units = {AbstractStatusesColumn.ONE_YEAR_MS, AbstractStatusesColumn.ONE_MONTH_MS, AbstractStatusesColumn.ONE_DAY_MS,
+			AbstractStatusesColumn.ONE_HOUR_MS, AbstractStatusesColumn.ONE_MINUTE_MS, AbstractStatusesColumn.ONE_SECOND_MS};
+		for (int i = 0; i < units.length; i++) {
+			if (time >= units[i]) {
+				float number = time / units[i];
+				int scale = (number >= 10 ? 0 : 1);
+				number = new BigDecimal(number).setScale(scale, BigDecimal.ROUND_HALF_DOWN).floatValue();
+				switch (i) {
+					case 0:
+						return hudson.Messages.Util_year(number);
+					case 1:
+						return hudson.Messages.Util_month(number);
+					case 2:
+						return hudson.Messages.Util_day(number);
+					case 3:
+						return hudson.Messages.Util_hour(number);
+					case 4:
+						return hudson.Messages.Util_minute(number);
+					default:
+						return hudson.Messages.Util_second(number);
+				}
+			}
+		}
+		return hudson.Messages.Util_second(0);
+	}
+}
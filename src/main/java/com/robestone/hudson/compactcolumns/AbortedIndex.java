@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Result;
+
+/**
+ * What we know about a job's last aborted build.  The history does not track aborted builds
+ * for us, so the first lookup walks back through the records (as far as the column allows),
+ * and after that the index is kept up to date from build completion events.
+ *
+ * @author jacob robertson
+ */
+final class AbortedIndex {
+
+	/**
+	 * Newest aborted build examined, or null.
+	 */
+	private final BuildSnapshot found;
+	/**
+	 * How many records back the aborted build is, counting the builds that completed since
+	 * the scan, so columns that don't look that far can leave it out.
+	 */
+	private final int foundAt;
+	/**
+	 * The last completed build number at the time the index was current,
+	 * so we can tell when we have missed an event.
+	 */
+	private final int newest;
+	private final int examined;
+	private final boolean exhausted;
+
+	private AbortedIndex(BuildSnapshot found, int foundAt, int newest, int examined, boolean exhausted) {
+		this.found = found;
+		this.foundAt = foundAt;
+		this.newest = newest;
+		this.examined = examined;
+		this.exhausted = exhausted;
+	}
+	/**
+	 * @param maxDepth how many records to look at before giving up, or 0 to look at all of them
+	 */
+	@SuppressWarnings("rawtypes")
+	static AbortedIndex scan(BuildHistory history, int maxDepth) {
+		BuildHistory.Record lastCompleted = history.getLastCompleted();
+		int newest = (lastCompleted == null ? 0 : lastCompleted.getNumber());
+		BuildHistory.Record record = history.getLast();
+		int examined = 0;
+		while (record != null) {
+			if (maxDepth > 0 && examined >= maxDepth) {
+				return new AbortedIndex(null, 0, newest, examined, false);
+			}
+			examined++;
+			if (record.getResult() == Result.ABORTED) {
+				return new AbortedIndex(BuildSnapshot.of(record), examined, newest, examined, false);
+			}
+			record = record.getPrevious();
+		}
+		return new AbortedIndex(null, 0, newest, examined, true);
+	}
+	BuildSnapshot getFound() {
+		return found;
+	}
+	/**
+	 * Only meaningful when {@link #covers} the same depth.
+	 * @param maxDepth how far back the column looks, or 0 for no limit
+	 * @return the aborted build, or null if there is none that far back
+	 */
+	BuildSnapshot getFound(int maxDepth) {
+		if (found == null || (maxDepth > 0 && foundAt > maxDepth)) {
+			return null;
+		}
+		return found;
+	}
+	int getExamined() {
+		return examined;
+	}
+	/**
+	 * @return whether this index can answer for a column with the given depth,
+	 * without going back to the history
+	 */
+	boolean covers(BuildSnapshot lastCompleted, int maxDepth) {
+		int completed = (lastCompleted == null ? 0 : lastCompleted.getNumber());
+		if (completed != newest) {
+			return false;
+		}
+		if (exhausted || maxDepth == 0 && found != null) {
+			return true;
+		}
+		// nothing newer than the found build was aborted, so the records examined are enough
+		// to say whether it is within the column's depth
+		return maxDepth > 0 && (examined >= maxDepth || found != null && foundAt <= maxDepth);
+	}
+	/**
+	 * @return the index after the given build completed, or null if it can't be worked out
+	 * without another scan
+	 */
+	AbortedIndex onCompleted(BuildSnapshot build) {
+		if (build.getNumber() <= newest) {
+			// finished out of order, let the next lookup sort it out
+			return null;
+		}
+		if (build.getResult() == Result.ABORTED) {
+			return new AbortedIndex(build, 1, build.getNumber(), examined + 1, exhausted);
+		}
+		return new AbortedIndex(found, found == null ? 0 : foundAt + 1, build.getNumber(), examined + 1, exhausted);
+	}
+	/**
+	 * @return the index after the given build was deleted, or null if it can't be worked out
+	 * without another scan
+	 */
+	AbortedIndex onDeleted(int number) {
+		if (found != null && found.getNumber() == number) {
+			return null;
+		}
+		return this;
+	}
+}
@@ -23,6 +23,7 @@
  */
 package com.robestone.hudson.compactcolumns;
 
+import hudson.model.Job;
 import hudson.views.ListViewColumn;
 
 /**
@@ -44,5 +45,25 @@ public abstract class AbstractCompactColumn extends ListViewColumn {
 	public boolean isShowColorblindUnderlineHint() {
 		return colorblindHint_Underline.equals(colorblindHint);
 	}
+	/**
+	 * How often the column's text changes on its own, as times ago get older,
+	 * in milliseconds - or 0 if it only changes when builds do.
+	 */
+	long getAgingPeriod() {
+		return 0;
+	}
+	/**
+	 * Whether the insides of cells are kept from one page to the next, see {@link FragmentCache}.
+	 */
+	public boolean isFragmentCached() {
+		return FragmentCache.isEnabled();
+	}
+	/**
+	 * Read before a cell is rendered for the {@link FragmentCache}, so a build that changes
+	 * the job while the cell is being rendered leaves the cell out of date straight away.
+	 */
+	public FragmentCache.Version getCellVersion(Job<?, ?> job) {
+		return FragmentCache.Version.of(job);
+	}
 
 }
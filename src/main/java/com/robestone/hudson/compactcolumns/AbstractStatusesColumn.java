@@ -26,19 +26,22 @@ package com.robestone.hudson.compactcolumns;
 
 import hudson.model.BuildHistory;
 import hudson.model.Job;
-import hudson.model.Result;
-import hudson.model.Run;
 import hudson.views.ListViewColumnDescriptor;
 
-import java.math.BigDecimal;
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jvnet.localizer.LocaleProvider;
+
+import com.robestone.hudson.compactcolumns.BuildInfo.StatusType;
 
 /**
  * @author jacob robertson
@@ -51,14 +54,15 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
 	public static final String FAILED_UNDERLINE_STYLE = "1px solid";
 	
 	// copied from hudson.Util because they were private
-    private static final long ONE_SECOND_MS = 1000;
-    private static final long ONE_MINUTE_MS = 60 * ONE_SECOND_MS;
-    private static final long ONE_HOUR_MS = 60 * ONE_MINUTE_MS;
+    static final long ONE_SECOND_MS = 1000;
+    static final long ONE_MINUTE_MS = 60 * ONE_SECOND_MS;
+    static final long ONE_HOUR_MS = 60 * ONE_MINUTE_MS;
     static final long ONE_DAY_MS = 24 * ONE_HOUR_MS;
-    private static final long ONE_MONTH_MS = 30 * ONE_DAY_MS;
-    private static final long ONE_YEAR_MS = 365 * ONE_DAY_MS;
+    static final long ONE_MONTH_MS = 30 * ONE_DAY_MS;
+    static final long ONE_YEAR_MS = 365 * ONE_DAY_MS;
 
     public static enum TimeAgoType { DIFF, PREFER_DATES, PREFER_DATE_TIME }
+    public static enum SortKey { LATEST, LAST_FAILURE, FAILURE_STREAK }
     
     private transient TimeAgoType timeAgoType;
     private String timeAgoTypeString;
@@ -78,40 +82,179 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
     	}
        	timeAgoType = TimeAgoType.valueOf(timeAgoTypeString);
     }
+    /**
+     * The key the table sorter sorts the column by, taken from the job's cached status
+     * rather than from its statuses.
+     */
     public String getColumnSortData(Job<?, ?> job) {
-    	List<BuildInfo> builds = getBuilds(job, Locale.getDefault());
-    	if (builds.isEmpty()) {
-    		return "0";
+    	return String.valueOf(getSortKey(job, JobStatusCache.get(job)));
+    }
+    long getSortKey(Job<?, ?> job, JobStatus status) {
+    	switch (getSortKeyType()) {
+    	case LAST_FAILURE:
+    		BuildSnapshot failed = status.getLastFailed();
+    		return (failed == null ? 0 : failed.getTimeInMillis());
+    	case FAILURE_STREAK:
+    		return getFailureStreak(job, status);
+    	default:
+        	BuildSnapshot latest = getLatestShown(job, status, isFailedShownOnlyIfLast(), isUnstableShownOnlyIfLast(),
+        			getAbortedScanDepth());
+        	return (latest == null ? 0 : latest.getTimeInMillis());
+    	}
+    }
+    /**
+     * How many builds there have been since the last stable or unstable one, when the last one
+     * failed - aborted builds in between count too.
+     */
+    @SuppressWarnings("rawtypes")
+    static long getFailureStreak(Job<?, ?> job, JobStatus status) {
+    	BuildSnapshot lastCompleted = status.getLastCompleted();
+    	if (!isSameBuild(lastCompleted, status.getLastFailed())) {
+    		return 0;
     	}
-    	BuildInfo latest = builds.get(0);
-    	return String.valueOf(latest.getBuildTime());
+    	BuildSnapshot lastGood = getLater(status.getLastStable(), status.getLastUnstable());
+    	if (lastGood != null) {
+    		return lastCompleted.getNumber() - lastGood.getNumber();
+    	}
+    	// nothing has ever passed, so every build up to the last one counts
+    	BuildHistory.Record first = job.getBuildHistoryData().getFirst();
+    	return lastCompleted.getNumber() - (first == null ? 1 : first.getNumber()) + 1;
+    }
+    /**
+     * What the column is sorted by, see {@link #getColumnSortData}.
+     */
+    public SortKey getSortKeyType() {
+    	return SortKey.LATEST;
     }
     public int getHideDays() {
 		return 0;
 	}
+    /**
+     * Times ago are shown to the minute at best, and dates change with the day (which
+     * the hour will catch soon enough).
+     */
+    @Override
+    long getAgingPeriod() {
+    	if (timeAgoType == TimeAgoType.DIFF) {
+    		return ONE_MINUTE_MS;
+    	}
+    	return ONE_HOUR_MS;
+    }
+    /**
+     * How many builds back to look for the last aborted build when it isn't already known, 0 for no limit.
+     */
+    public int getAbortedScanDepth() {
+		return 0;
+	}
     public boolean isBuildsEmpty(Job<?, ?> job) {
-    	// TODO -- make much more efficient
-    	return getBuilds(job, Locale.getDefault()).isEmpty();
+    	return getBuilds(job, BuildsMemo.getCurrentLocale()).isEmpty();
     }
+    /**
+     * Within a request the statuses are only computed once per job, no matter how many times
+     * the page asks for them.
+     */
     public List<BuildInfo> getBuilds(Job<?, ?> job, Locale locale) {
+    	BuildsMemo memo = BuildsMemo.getCurrent();
+    	if (memo != null) {
+    		List<BuildInfo> builds = memo.get(this, job, locale);
+    		if (builds == null) {
+    			builds = computeBuilds(job, locale);
+    			memo.put(this, job, locale, builds);
+    		} else {
+    			ColumnMetrics.MEMO_HITS.increment();
+    		}
+    		return builds;
+    	}
+    	return computeBuilds(job, locale);
+    }
+    /**
+     * The statuses of all the jobs in a view at once.  columnHeader.jelly asks for these before
+     * any rows are drawn, so that each row finds its statuses already worked out.
+     * When parallel rendering is turned on, the jobs not already worked out are shared
+     * across the plugin's fork/join pool.
+     * @param items the view's items - anything that isn't a job is skipped
+     */
+    public Map<Job<?, ?>, List<BuildInfo>> getAllBuilds(Collection<?> items, Locale locale) {
+    	Map<Job<?, ?>, List<BuildInfo>> all = new LinkedHashMap<Job<?, ?>, List<BuildInfo>>();
+    	if (items == null) {
+    		return all;
+    	}
+    	BuildsMemo memo = BuildsMemo.getCurrent();
+    	List<Job<?, ?>> missing = new ArrayList<Job<?, ?>>();
+    	for (Object item : items) {
+    		if (item instanceof Job) {
+    			Job<?, ?> job = (Job<?, ?>) item;
+    			List<BuildInfo> builds = (memo == null ? null : memo.get(this, job, locale));
+    			all.put(job, builds);
+    			if (builds == null) {
+    				missing.add(job);
+    			} else {
+    				ColumnMetrics.MEMO_HITS.increment();
+    			}
+    		}
+    	}
+    	ForkJoinPool pool = CompactColumnsPlugin.getStatusPool();
+    	List<BuildInfo>[] computed = null;
+    	if (pool != null && missing.size() > 1) {
+    		computed = ParallelBuilds.compute(this, missing, locale, pool);
+    	}
+    	if (computed != null) {
+    		for (int i = 0; i < computed.length; i++) {
+    			all.put(missing.get(i), computed[i]);
+    		}
+    	} else {
+    		for (Job<?, ?> job : missing) {
+    			all.put(job, computeBuilds(job, locale));
+    		}
+    	}
+    	if (memo != null) {
+    		for (Job<?, ?> job : missing) {
+    			memo.put(this, job, locale, all.get(job));
+    		}
+    	}
+    	return all;
+    }
+    List<BuildInfo> computeBuilds(Job<?, ?> job, Locale locale) {
     	return getBuilds(
     			job, locale, 
     			isFailedShownOnlyIfLast(), isUnstableShownOnlyIfLast(), 
     			isOnlyShowLastStatus(), isShowColorblindUnderlineHint(), timeAgoType,
-    			getHideDays());
+    			getHideDays(), getAbortedScanDepth());
     }
     public static List<BuildInfo> getBuilds(Job<?, ?> job, Locale locale, 
     		boolean isFailedShownOnlyIfLast, boolean isUnstableShownOnlyIfLast, 
     		boolean isOnlyShowLastStatus, boolean isShowColorblindUnderlineHint, TimeAgoType timeAgoType, int hideDays) {
+    	return getBuilds(job, locale, isFailedShownOnlyIfLast, isUnstableShownOnlyIfLast, 
+    			isOnlyShowLastStatus, isShowColorblindUnderlineHint, timeAgoType, hideDays, 0);
+    }
+    public static List<BuildInfo> getBuilds(Job<?, ?> job, Locale locale, 
+    		boolean isFailedShownOnlyIfLast, boolean isUnstableShownOnlyIfLast, 
+    		boolean isOnlyShowLastStatus, boolean isShowColorblindUnderlineHint, TimeAgoType timeAgoType, int hideDays,
+    		int abortedScanDepth) {
+    	long start = ColumnMetrics.start();
+    	try {
+    		List<BuildInfo> builds = collectBuilds(job, locale, isFailedShownOnlyIfLast, isUnstableShownOnlyIfLast,
+    				isOnlyShowLastStatus, isShowColorblindUnderlineHint, timeAgoType, hideDays, abortedScanDepth);
+    		ColumnMetrics.ROWS.add(builds.size());
+    		return builds;
+    	} finally {
+    		ColumnMetrics.GET_BUILDS.stop(start);
+    	}
+    }
+    private static List<BuildInfo> collectBuilds(Job<?, ?> job, Locale locale, 
+    		boolean isFailedShownOnlyIfLast, boolean isUnstableShownOnlyIfLast, 
+    		boolean isOnlyShowLastStatus, boolean isShowColorblindUnderlineHint, TimeAgoType timeAgoType, int hideDays,
+    		int abortedScanDepth) {
+    	JobStatus status = JobStatusCache.get(job);
     	List<BuildInfo> builds = new ArrayList<BuildInfo>();
 
-    	addNonNull(builds, getLastFailedBuild(job, locale, isFailedShownOnlyIfLast, isShowColorblindUnderlineHint, true, timeAgoType));
-	    addNonNull(builds, getLastUnstableBuild(job, locale, isUnstableShownOnlyIfLast, isShowColorblindUnderlineHint, builds.isEmpty(), timeAgoType));
-	    addNonNull(builds, getLastStableBuild(job, locale, isShowColorblindUnderlineHint, builds.isEmpty(), timeAgoType));
+    	addNonNull(builds, getLastFailedBuild(job, status, locale, isFailedShownOnlyIfLast, isShowColorblindUnderlineHint));
+	    addNonNull(builds, getLastUnstableBuild(job, status, locale, isUnstableShownOnlyIfLast, isShowColorblindUnderlineHint));
+	    addNonNull(builds, getLastStableBuild(job, status, locale, isShowColorblindUnderlineHint));
 
     	if (builds.isEmpty()) {
-        	BuildInfo aborted = createBuildInfo(getLastAbortedBuild(job), BuildInfo.OTHER_COLOR, OTHER_UNDERLINE_STYLE, getAbortedMessage(), null, job, 
-        			locale, isShowColorblindUnderlineHint, true, timeAgoType);
+        	BuildSnapshot lastAborted = JobStatusCache.getLastAborted(job, status, abortedScanDepth);
+        	BuildInfo aborted = createBuildInfo(lastAborted, StatusType.ABORTED, job, status, locale, isShowColorblindUnderlineHint);
         	addNonNull(builds, aborted);
     	}
     	
@@ -147,20 +290,79 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
 
     	return builds;
     }
+    /**
+     * The first of the statuses {@link #getBuilds} gives when only the last status is shown
+     * and none are hidden, found without making or sorting the others.
+     * @return null when the job has no statuses
+     */
+    static BuildInfo getLatestBuild(Job<?, ?> job, Locale locale, boolean isShowColorblindUnderlineHint,
+    		TimeAgoType timeAgoType) {
+    	JobStatus status = JobStatusCache.get(job);
+    	BuildSnapshot latest = getLatestShown(job, status, false, false, 0);
+    	BuildInfo info;
+    	if (latest == null) {
+    		info = null;
+    	} else if (latest == status.getLastFailed()) {
+    		info = getLastFailedBuild(job, status, locale, false, isShowColorblindUnderlineHint);
+    	} else if (latest == status.getLastUnstable()) {
+    		info = getLastUnstableBuild(job, status, locale, false, isShowColorblindUnderlineHint);
+    	} else if (latest == status.getLastStable()) {
+    		info = getLastStableBuild(job, status, locale, isShowColorblindUnderlineHint);
+    	} else {
+        	info = createBuildInfo(latest, StatusType.ABORTED, job, status, locale, isShowColorblindUnderlineHint);
+    	}
+    	if (info != null) {
+    		info.setFirst(true);
+    		info.setMultipleBuilds(false);
+    		assignTimeAgoString(info, locale, timeAgoType);
+    	}
+    	return info;
+    }
+    /**
+     * The build behind the first status {@link #getBuilds} would give, straight from the job's status.
+     * @return null when the job has no statuses
+     */
+    private static BuildSnapshot getLatestShown(Job<?, ?> job, JobStatus status, boolean isFailedShownOnlyIfLast,
+    		boolean isUnstableShownOnlyIfLast, int abortedScanDepth) {
+    	BuildSnapshot lastCompleted = status.getLastCompleted();
+    	BuildSnapshot failed = status.getLastFailed();
+    	if (isFailedShownOnlyIfLast && !isSameBuild(failed, lastCompleted)) {
+    		failed = null;
+    	}
+    	BuildSnapshot unstable = status.getLastUnstable();
+    	if (isUnstableShownOnlyIfLast && !isSameBuild(unstable, lastCompleted)) {
+    		unstable = null;
+    	}
+    	BuildSnapshot latest = getLater(getLater(failed, unstable), status.getLastStable());
+    	if (latest == null) {
+    		latest = JobStatusCache.getLastAborted(job, status, abortedScanDepth);
+    	}
+    	return latest;
+    }
+    private static BuildSnapshot getLater(BuildSnapshot one, BuildSnapshot other) {
+    	if (one == null || (other != null && other.getNumber() > one.getNumber())) {
+    		return other;
+    	}
+    	return one;
+    }
+    private static boolean isSameBuild(BuildSnapshot one, BuildSnapshot other) {
+    	return one != null && other != null && one.getNumber() == other.getNumber();
+    }
     /**
      * @param onlyIfLastCompleted When the statuses aren't sorted, we only show the last failed
      * when it is also the latest completed build.
      */
     public static BuildInfo getLastFailedBuild(Job<?, ?> job, Locale locale, boolean onlyIfLastCompleted, boolean isShowColorblindUnderlineHint, 
     		boolean isFirst, TimeAgoType timeAgoType) {
-    	BuildHistory buildHistory = job.getBuildHistoryData();
-    	BuildHistory.Record lastFailedBuild = buildHistory.getLastFailed();
-    	BuildHistory.Record lastCompletedBuild = buildHistory.getLastCompleted();
+    	return getLastFailedBuild(job, JobStatusCache.get(job), locale, onlyIfLastCompleted, isShowColorblindUnderlineHint);
+    }
+    private static BuildInfo getLastFailedBuild(Job<?, ?> job, JobStatus status, Locale locale, boolean onlyIfLastCompleted, boolean isShowColorblindUnderlineHint) {
+    	BuildSnapshot lastFailedBuild = status.getLastFailed();
+    	BuildSnapshot lastCompletedBuild = status.getLastCompleted();
     	if (lastFailedBuild == null) {
     		return null;
     	} else if (!onlyIfLastCompleted || (lastCompletedBuild.getNumber() == lastFailedBuild.getNumber())) {
-        	return createBuildInfo(buildHistory.getLastFailed(), BuildInfo.FAILED_COLOR, FAILED_UNDERLINE_STYLE, getFailedMessage(), "lastFailedBuild", job, 
-        			locale, isShowColorblindUnderlineHint, isFirst, timeAgoType);
+        	return createBuildInfo(lastFailedBuild, StatusType.FAILED, job, status, locale, isShowColorblindUnderlineHint);
     	} else {
     		return null;
     	}
@@ -173,28 +375,31 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
 
     public static BuildInfo getLastStableBuild(Job<?, ?> job, Locale locale, boolean isShowColorblindUnderlineHint, 
     		boolean isFirst, TimeAgoType timeAgoType) {
-        final BuildHistory buildHistory = job.getBuildHistoryData();
-    	return createBuildInfo(buildHistory.getLastStable(), BuildInfo.getStableColorString(), STABLE_UNDERLINE_STYLE, getStableMessage(), "lastStableBuild", job, 
-    			locale, isShowColorblindUnderlineHint, isFirst, timeAgoType);
+    	return getLastStableBuild(job, JobStatusCache.get(job), locale, isShowColorblindUnderlineHint);
+    }
+    private static BuildInfo getLastStableBuild(Job<?, ?> job, JobStatus status, Locale locale, boolean isShowColorblindUnderlineHint) {
+    	return createBuildInfo(status.getLastStable(), StatusType.STABLE, job, status, locale, isShowColorblindUnderlineHint);
     }
 
     public static BuildInfo getLastUnstableBuild(Job<?, ?> job, Locale locale, boolean isUnstableShownOnlyIfLast, 
     		boolean isShowColorblindUnderlineHint, boolean isFirst, TimeAgoType timeAgoType) {
-    	BuildHistory buildHistory = job.getBuildHistoryData();
-        BuildHistory.Record lastUnstable = buildHistory.getLastUnstable();
+    	return getLastUnstableBuild(job, JobStatusCache.get(job), locale, isUnstableShownOnlyIfLast, isShowColorblindUnderlineHint);
+    }
+    private static BuildInfo getLastUnstableBuild(Job<?, ?> job, JobStatus status, Locale locale, boolean isUnstableShownOnlyIfLast, 
+    		boolean isShowColorblindUnderlineHint) {
+    	BuildSnapshot lastUnstable = status.getLastUnstable();
         if (lastUnstable == null) {
     		return null;
     	}
 
-    	BuildHistory.Record lastCompleted = buildHistory.getLastCompleted();
+    	BuildSnapshot lastCompleted = status.getLastCompleted();
     	
     	boolean isLastCompleted = (lastCompleted != null && lastCompleted.getNumber() == lastUnstable.getNumber());
     	if (isUnstableShownOnlyIfLast && !isLastCompleted) {
     		return null;
     	}
     	
-    	return createBuildInfo(lastUnstable, BuildInfo.UNSTABLE_COLOR, UNSTABLE_UNDERLINE_STYLE, getUnstableMessage(), String.valueOf(lastUnstable.getNumber()), job,
-    			locale, isShowColorblindUnderlineHint, isFirst, timeAgoType);
+    	return createBuildInfo(lastUnstable, StatusType.UNSTABLE, job, status, locale, isShowColorblindUnderlineHint);
     }
 
     private static void addNonNull(List<BuildInfo> builds, BuildInfo info) {
@@ -202,42 +407,14 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
     		builds.add(info);
     	}
     }
-   private static BuildHistory.Record getLastAbortedBuild(Job<?, ?> job) {
-        BuildHistory buildHistory = job.getBuildHistoryData();
-        
-        BuildHistory.Record latest = buildHistory.getLast();
-    	while (latest != null) {
-    		if (latest.getResult() == Result.ABORTED) {
-    			return latest;
-    		}
-    		latest = latest.getPrevious();
-    	}
-    	return null;
-    }
     private static void assignTimeAgoString(BuildInfo info, Locale locale, TimeAgoType timeAgoType) {
     	String timeAgoString = getTimeAgoString(locale, info.getBuildTime(), info.isMultipleBuilds(), timeAgoType);
     	info.setTimeAgoString(timeAgoString);
     }
-    private static BuildInfo createBuildInfo(
-    		BuildHistory.Record buildRecord, String color, String underlineStyle, String status, String urlPart, Job<?, ?> job, 
-    		Locale locale, boolean isShowColorblindUnderlineHint, boolean isFirst, TimeAgoType timeAgoType) {
-    	if (buildRecord != null) {
-	    	long buildTime = buildRecord.getTimeInMillis();
-	    	if (urlPart == null) {
-	    		urlPart = String.valueOf(buildRecord.getNumber());
-	    	}
-	    	BuildHistory buildHistory = job.getBuildHistoryData();
-	    	BuildHistory.Record latest = buildHistory.getLastCompleted();
-	    	if (latest == null) {
-	    		latest = buildHistory.getLast();
-	    	}
-	    	if (!isShowColorblindUnderlineHint) {
-	    		underlineStyle = null;
-	    	}
-	    	BuildInfo build = new BuildInfo(
-	    			buildRecord, color, underlineStyle, buildTime, 
-	    			status, urlPart, buildRecord.getNumber() == latest.getNumber());
-	    	return build;
+    private static BuildInfo createBuildInfo(BuildSnapshot build, StatusType type, Job<?, ?> job,
+    		JobStatus status, Locale locale, boolean isShowColorblindUnderlineHint) {
+    	if (build != null) {
+	    	return new BuildInfo(job, build, type, locale, isShowColorblindUnderlineHint, status.isLatest(build));
     	}
     	return null;
     }
@@ -245,21 +422,13 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
     	if (timeAgoType == TimeAgoType.DIFF) {
 	    	long now = System.currentTimeMillis();
 	    	float diff = now - timestamp;
-	    	String stime = getShortTimestamp(diff);
+	    	String stime = ShortTimestamps.get(diff, locale);
 	    	return stime;
     	} else {
     		if (timeAgoType == TimeAgoType.PREFER_DATE_TIME && !isMultiple) {
     			return getBuildTimeString(timestamp, locale, true, true, true);
     		} else {
-    	    	Calendar nowCal = Calendar.getInstance();
-    	    	nowCal.setTimeInMillis(System.currentTimeMillis());
-    	    	Calendar thenCal = Calendar.getInstance();
-    	    	thenCal.setTimeInMillis(timestamp);
-    	    	
-    	    	int nowDay = nowCal.get(Calendar.DAY_OF_YEAR);
-    	    	int thenDay = thenCal.get(Calendar.DAY_OF_YEAR);
-
-        		boolean isToday = (nowDay == thenDay);
+        		boolean isToday = (DateFormats.getDay(System.currentTimeMillis()) == DateFormats.getDay(timestamp));
         		if (isToday) {
         			return getBuildTimeString(timestamp, locale, false, true, false);
         		} else {
@@ -271,57 +440,33 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
     protected static String getBuildTimeString(long timeMs, Locale locale) {
     	return getBuildTimeString(timeMs, locale, true, true, false);
     }
+    /**
+     * The strings are cached, since many builds on a page share a day, or even a minute.
+     */
     protected static String getBuildTimeString(long timeMs, Locale locale, 
     		boolean addDate, boolean addTime, boolean useDefaultFormat) {
-    	Date time = new Date(timeMs);
-
     	if (addTime && addDate && useDefaultFormat) {
-    		DateFormat dateFormat = getDateTimePattern(locale);
-	    	String dateString = dateFormat.format(time);
-    		return dateString;
+    		return DateFormats.getDateTimeString(timeMs, locale);
+    	} else if (addTime && addDate) {
+    		return DateFormats.getTimeString(timeMs, locale) + ", " + DateFormats.getDateString(timeMs, locale);
+    	} else if (addTime) {
+    		return DateFormats.getTimeString(timeMs, locale);
+    	} else if (addDate) {
+    		return DateFormats.getDateString(timeMs, locale);
     	} else {
-        	StringBuilder buf = new StringBuilder();
-	    	if (addTime) {
-		    	DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT, locale);
-		    	String timeString = timeFormat.format(time);
-		   		buf.append(timeString);
-	    	}
-	    	if (addDate) {
-	    		DateFormat dateFormat = getDatePattern(locale);
-		    	String dateString = dateFormat.format(time);
-		    
-		    	if (buf.length() > 0) {
-		    		buf.append(", ");
-		    	}
-		   		buf.append(dateString);
-	    	}
-	    	return buf.toString();
+    		return "";
     	}
     }
     
     /**
      * I want to use 4-digit years (for clarity), and that doesn't work out of the box...
+     * The format is cached for the calling thread, so don't hand it to other threads.
      */
     protected static DateFormat getDatePattern(Locale locale) {
-    	DateFormat format = DateFormat.getDateInstance(DateFormat.SHORT, locale);
-   		return getDatePattern(format, locale);
+    	return DateFormats.getDateFormat(locale);
     }
     protected static DateFormat getDateTimePattern(Locale locale) {
-    	DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale);
-   		return getDatePattern(format, locale);
-    }
-    private static DateFormat getDatePattern(DateFormat format, Locale locale) {
-    	if (format instanceof SimpleDateFormat) {
-			String s = ((SimpleDateFormat) format).toPattern();
-			if (!s.contains("yyyy")) {
-				s = s.replace("yy", "yyyy");
-			}
-	    	DateFormat dateFormat = new SimpleDateFormat(s, locale);
-			return dateFormat;
-		} else {
-			// shown by unit test to not be a problem...
-			throw new IllegalArgumentException("Can't handle locale: " + locale);
-	    }
+    	return DateFormats.getDateTimeFormat(locale);
     }
     
     /**
@@ -333,59 +478,246 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
      * >= 10 of anything = x (scale 0)
      */
     protected static String getShortTimestamp(float time) {
-    	String ts;
-    	float number;
-    	if (time >= ONE_YEAR_MS) {
-    		number = getRoundedNumber(time / ONE_YEAR_MS);
-    		ts = hudson.Messages.Util_year(number);
-    	} else if (time >= ONE_MONTH_MS) {
-    		number = getRoundedNumber(time / ONE_MONTH_MS);
-    		ts = hudson.Messages.Util_month(number);
-    	} else if (time >= ONE_DAY_MS) {
-    		number = getRoundedNumber(time / ONE_DAY_MS);
-    		ts = hudson.Messages.Util_day(number);
-    	} else if (time >= ONE_HOUR_MS) {
-    		number = getRoundedNumber(time / ONE_HOUR_MS);
-    		ts = hudson.Messages.Util_hour(number);
-    	} else if (time >= ONE_MINUTE_MS) {
-    		number = getRoundedNumber(time / ONE_MINUTE_MS);
-    		ts = hudson.Messages.Util_minute(number);
-    	} else if (time >= ONE_SECOND_MS) {
-    		number = getRoundedNumber(time / ONE_SECOND_MS);
-    		ts = hudson.Messages.Util_second(number);
-    	} else {
-        	ts = hudson.Messages.Util_second(0);
-    	}
-    	return ts;
+    	return ShortTimestamps.get(time, LocaleProvider.getLocale());
     }
 	public final String getToolTip(BuildInfo build, Locale locale) {
 		return getBuildDescriptionToolTip(build, locale);
 	}
+	/**
+	 * Whether tool-tips are left out of the page, and fetched from {@link #getToolTipUrl} when
+	 * the mouse first goes over a status.
+	 */
+	public boolean isLazyToolTips() {
+		return CompactColumnsPlugin.isLazyToolTipsEnabled();
+	}
+	/**
+	 * Whether the page is drawn with empty cells, which are then filled in a few rows at a time
+	 * from {@link #getCellsUrl()}.
+	 */
+	public boolean isProgressive() {
+		return CompactColumnsPlugin.isProgressiveEnabled();
+	}
+	/**
+	 * Whether times are left for client-times.js to fill in, so that the page doesn't
+	 * depend on when it was drawn.
+	 */
+	public boolean isClientTimes() {
+		return CompactColumnsPlugin.isClientTimesEnabled();
+	}
+	/**
+	 * With {@link #isClientTimes()}, the text the page is drawn with - only the parts that
+	 * don't depend on the current time, which is nothing at all for times ago.
+	 */
+	public String getClientTimeText(BuildInfo build, Locale locale) {
+		if (timeAgoType == TimeAgoType.DIFF) {
+			return "";
+		} else if (timeAgoType == TimeAgoType.PREFER_DATE_TIME && !build.isMultipleBuilds()) {
+			return getBuildTimeString(build.getBuildTime(), locale, true, true, true);
+		}
+		return getBuildTimeString(build.getBuildTime(), locale, true, false, false);
+	}
+	/**
+	 * For client-times.js to show instead of the date when the build was today,
+	 * or null if the text never changes.
+	 */
+	public String getTimeOfDayString(BuildInfo build, Locale locale) {
+		if (timeAgoType == TimeAgoType.DIFF
+				|| (timeAgoType == TimeAgoType.PREFER_DATE_TIME && !build.isMultipleBuilds())) {
+			return null;
+		}
+		return getBuildTimeString(build.getBuildTime(), locale, false, true, false);
+	}
+	/**
+	 * The server's time zone offset at the time of the build, so client-times.js
+	 * can tell "today" the same way {@link #getTimeAgoString} does.
+	 */
+	public Integer getTimeZoneOffset(BuildInfo build) {
+		if (timeAgoType == TimeAgoType.DIFF) {
+			return null;
+		}
+		return TimeZone.getDefault().getOffset(build.getBuildTime());
+	}
+	/**
+	 * The inside of the job's cell from the {@link FragmentCache}, with its times ago filled in.
+	 * @param baseUrl the url the cell's links start with
+	 * @return null when the cache is off, or has no cell for the job that is still good
+	 */
+	public String getCachedCell(Job<?, ?> job, Locale locale, String baseUrl) {
+		if (!FragmentCache.isEnabled()) {
+			return null;
+		}
+		List<BuildInfo> builds = getBuilds(job, locale);
+		return FragmentCache.get(this, job, locale, baseUrl, getCellStamp(builds), getTimesAgo(builds));
+	}
+	/**
+	 * The statuses to render a cell for the {@link FragmentCache} from - copies of the
+	 * request's statuses, with markers in place of the times ago.
+	 */
+	public List<BuildInfo> getTemplateBuilds(Job<?, ?> job, Locale locale) {
+		List<BuildInfo> builds = getBuilds(job, locale);
+		List<BuildInfo> template = new ArrayList<BuildInfo>(builds.size());
+		for (int i = 0; i < builds.size(); i++) {
+			template.add(builds.get(i).withTimeAgoString(FragmentCache.getMarker(i)));
+		}
+		return template;
+	}
+	/**
+	 * Keeps the inside of the job's cell in the {@link FragmentCache}.
+	 * @param version the job's version from before the cell was rendered - a build that changed
+	 * after the request's statuses were worked out changes the build numbers the cell is kept
+	 * against, so it isn't used again
+	 * @param builds the template builds the cell was rendered from
+	 * @return the cell, with its times ago filled in
+	 */
+	public String putCachedCell(Job<?, ?> job, Locale locale, String baseUrl, FragmentCache.Version version,
+			List<BuildInfo> builds, String html) {
+		return FragmentCache.put(this, job, locale, baseUrl, version, getCellStamp(builds), html,
+				getTimesAgo(getBuilds(job, locale)));
+	}
+	/**
+	 * Builds drop out of the cell as they get older than the hide days, without the
+	 * generation changing, so the cell is only good for the same build numbers.
+	 */
+	private static long getCellStamp(List<BuildInfo> builds) {
+		long stamp = builds.size();
+		for (BuildInfo build : builds) {
+			stamp = 31 * stamp + build.getNumber();
+		}
+		return stamp;
+	}
+	private static List<String> getTimesAgo(List<BuildInfo> builds) {
+		List<String> times = new ArrayList<String>(builds.size());
+		for (BuildInfo build : builds) {
+			times.add(build.getTimeAgoString());
+		}
+		return times;
+	}
+	/**
+	 * Whether the page keeps its statuses up to date by asking for the cells of jobs
+	 * as they change, see {@link StatusUpdates}.
+	 */
+	public boolean isLiveUpdates() {
+		return CompactColumnsPlugin.isLiveUpdatesEnabled();
+	}
+	/**
+	 * The sequence number of the last change a page drawn now already shows.
+	 */
+	public long getUpdateSequence() {
+		return StatusUpdates.getSequence();
+	}
+	/**
+	 * @return the url the cells of this column are fetched from, relative to the root url
+	 */
+	public String getCellsUrl() {
+		return CompactColumnsPlugin.URL + "statusCells?column=" + ColumnRegistry.getId(this);
+	}
+	/**
+	 * @return the url of the tool-tip, relative to the root url
+	 */
+	public String getToolTipUrl(Job<?, ?> job, BuildInfo build) {
+		return CompactColumnsPlugin.URL + "statusToolTip?job=" + CompactColumnsPlugin.encode(job.getFullName())
+			+ "&number=" + build.getNumber() + "&timeAgoType=" + timeAgoType + "&multiple=" + build.isMultipleBuilds();
+	}
+	/**
+	 * The tool-tip for one of the statuses of a job, looked up by build number.
+	 * The number comes from the client, so the aborted build is only looked for when the job
+	 * has nothing else to show, and no further back than the status scan went.
+	 * @return null when that build is no longer one of the job's statuses
+	 */
+	static String getToolTip(Job<?, ?> job, int number, Locale locale, TimeAgoType timeAgoType, boolean isMultiple) {
+		JobStatus status = JobStatusCache.get(job);
+		BuildInfo build = getLastFailedBuild(job, status, locale, false, false);
+		if (build == null || build.getNumber() != number) {
+			build = getLastUnstableBuild(job, status, locale, false, false);
+		}
+		if (build == null || build.getNumber() != number) {
+			build = getLastStableBuild(job, status, locale, false);
+		}
+		if (build == null && status.getLastFailed() == null && status.getLastUnstable() == null) {
+			BuildSnapshot lastAborted = JobStatusCache.getLastAborted(job, status,
+					CompactColumnsPlugin.getStatusScanDepthSetting());
+			build = createBuildInfo(lastAborted, StatusType.ABORTED, job, status, locale, false);
+		}
+		if (build == null || build.getNumber() != number) {
+			return null;
+		}
+		build.setMultipleBuilds(isMultiple);
+		assignTimeAgoString(build, locale, timeAgoType);
+		return getBuildDescriptionToolTip(build, locale);
+	}
 
     protected static float getRoundedNumber(float number) {
-    	int scale;
-    	if (number >= 10) {
-    		scale = 0;
+    	return (float) (getRoundedTenths(number) / 10.0);
+    }
+    /**
+     * The number rounded half-down, to one decimal place below 10 and to a whole number from 10 up,
+     * given as a count of tenths.  This is the same rounding BigDecimal does on the exact value
+     * of the float, since a float times ten always fits in a double without loss.
+     */
+    static long getRoundedTenths(float number) {
+    	boolean isWholeNumber = (number >= 10);
+    	double value = Math.abs((double) number);
+    	double scaled;
+    	if (isWholeNumber) {
+    		scaled = value;
     	} else {
-    		scale = 1;
+    		scaled = value * 10;
+    	}
+    	double floor = Math.floor(scaled);
+    	long rounded = (long) floor;
+    	if (scaled - floor > 0.5) {
+    		rounded++;
+    	}
+    	if (isWholeNumber) {
+    		rounded *= 10;
     	}
-    	return new BigDecimal(number).setScale(scale, BigDecimal.ROUND_HALF_DOWN).floatValue();
+    	if (number < 0) {
+    		rounded = -rounded;
+    	}
+    	return rounded;
     }
 
     public static final String getFailedMessage() {
-    	return hudson.model.Messages.BallColor_Failed();
+    	return getFailedMessage(LocaleProvider.getLocale());
+    }
+    /**
+     * The messages are looked up in the given locale rather than the current request's,
+     * since statuses can be worked out away from the request thread.
+     */
+    static String getFailedMessage(Locale locale) {
+    	return hudson.model.Messages._BallColor_Failed().toString(locale);
     }
     public static final String getUnstableMessage() {
-    	return hudson.model.Messages.BallColor_Unstable();
+    	return getUnstableMessage(LocaleProvider.getLocale());
+    }
+    static String getUnstableMessage(Locale locale) {
+    	return hudson.model.Messages._BallColor_Unstable().toString(locale);
     }
     public static final String getAbortedMessage() {
-    	return hudson.model.Messages.BallColor_Aborted();
+    	return getAbortedMessage(LocaleProvider.getLocale());
+    }
+    static String getAbortedMessage(Locale locale) {
+    	return hudson.model.Messages._BallColor_Aborted().toString(locale);
+    }
+    public static final String getNotBuiltMessage() {
+    	return getNotBuiltMessage(LocaleProvider.getLocale());
+    }
+    static String getNotBuiltMessage(Locale locale) {
+    	return hudson.model.Messages._BallColor_NotBuilt().toString(locale);
     }
 	public static final String getBuildDescriptionToolTip(BuildInfo build, Locale locale) {
+		long start = ColumnMetrics.start();
+		try {
+			return buildDescriptionToolTip(build, locale);
+		} finally {
+			ColumnMetrics.BUILD_TOOL_TIP.stop(start);
+		}
+	}
+	private static String buildDescriptionToolTip(BuildInfo build, Locale locale) {
     	StringBuilder buf = new StringBuilder();
     	buf.append("<b><u>");
     	buf.append(Messages.BuildNumber());
-    	buf.append(build.getRun().number);
+    	buf.append(build.getNumber());
     	buf.append(build.getLatestBuildString(locale));
     	buf.append("</u></b>\n");
     	buf.append("<ul>\n");
@@ -405,7 +737,10 @@ public abstract class AbstractStatusesColumn extends AbstractCompactColumn {
     	return buf.toString();
     }
     public static final String getStableMessage() {
-    	String message = hudson.model.Messages.Run_Summary_Stable();
+    	return getStableMessage(LocaleProvider.getLocale());
+    }
+    static String getStableMessage(Locale locale) {
+    	String message = hudson.model.Messages._Run_Summary_Stable().toString(locale);
     	if (message != null && message.length() > 1) {
     		// this logic is here solely so I can re-use the "stable" messages, but make it capitalized
     		char c = message.charAt(0);
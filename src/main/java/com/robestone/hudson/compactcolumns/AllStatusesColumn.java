@@ -33,16 +33,31 @@ public class AllStatusesColumn extends AbstractStatusesColumn {
 	
 	private boolean onlyShowLastStatus;
     private int hideDays;
+    private int abortedScanDepth;
+    private String sortKeyString;
 
-	@DataBoundConstructor
 	public AllStatusesColumn(String colorblindHint, boolean onlyShowLastStatus, String timeAgoTypeString, int hideDays) {
+		this(colorblindHint, onlyShowLastStatus, timeAgoTypeString, hideDays, 0);
+	}
+	public AllStatusesColumn(String colorblindHint, boolean onlyShowLastStatus, String timeAgoTypeString, int hideDays,
+			int abortedScanDepth) {
+		this(colorblindHint, onlyShowLastStatus, timeAgoTypeString, hideDays, abortedScanDepth, null);
+	}
+	@DataBoundConstructor
+	public AllStatusesColumn(String colorblindHint, boolean onlyShowLastStatus, String timeAgoTypeString, int hideDays,
+			int abortedScanDepth, String sortKeyString) {
     	super(colorblindHint, timeAgoTypeString);
     	this.onlyShowLastStatus = onlyShowLastStatus;
     	this.hideDays = hideDays;
+    	this.abortedScanDepth = abortedScanDepth;
+    	this.sortKeyString = sortKeyString;
     }
     public int getHideDays() {
 		return hideDays;
 	}
+    public int getAbortedScanDepth() {
+		return abortedScanDepth;
+	}
 	@Override
 	protected boolean isFailedShownOnlyIfLast() {
 		return false;
@@ -54,6 +69,23 @@ public class AllStatusesColumn extends AbstractStatusesColumn {
 	public boolean isOnlyShowLastStatus() {
 		return onlyShowLastStatus;
 	}
+	public String getSortKeyString() {
+		return sortKeyString;
+	}
+	/**
+	 * A blank or unknown key, as from an older or hand-edited config.xml, sorts by the latest build.
+	 */
+	@Override
+	public SortKey getSortKeyType() {
+		if (sortKeyString == null || sortKeyString.length() == 0) {
+			return SortKey.LATEST;
+		}
+		try {
+			return SortKey.valueOf(sortKeyString);
+		} catch (IllegalArgumentException e) {
+			return SortKey.LATEST;
+		}
+	}
 	@Extension
 	public static class AllStatusesColumnDescriptor extends
 			AbstractCompactColumnDescriptor {
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache that never holds more than a fixed number of entries.  When it fills up the oldest
+ * entries are dropped, one at a time, so the ones still in use are mostly kept and lookups
+ * never have to wait on a lock.
+ *
+ * @author jacob robertson
+ */
+final class BoundedCache<K, V> {
+
+	private final int maxSize;
+	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<K, V>();
+	/**
+	 * The keys in the order they were first put, oldest first.
+	 */
+	private final Queue<K> order = new ConcurrentLinkedQueue<K>();
+
+	BoundedCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+	V get(K key) {
+		return map.get(key);
+	}
+	void put(K key, V value) {
+		if (map.put(key, value) != null) {
+			return;
+		}
+		order.add(key);
+		while (map.size() > maxSize) {
+			K eldest = order.poll();
+			if (eldest == null) {
+				break;
+			}
+			map.remove(eldest);
+		}
+	}
+	void clear() {
+		// the order first, so a key put meanwhile is never left in the map but not the order
+		order.clear();
+		map.clear();
+	}
+	int size() {
+		return map.size();
+	}
+}
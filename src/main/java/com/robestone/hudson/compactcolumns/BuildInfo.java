@@ -1,7 +1,8 @@
 package com.robestone.hudson.compactcolumns;
 
 import hudson.Util;
-import hudson.model.BuildHistory;
+import hudson.model.Job;
+import hudson.model.Result;
 import java.awt.Color;
 import java.util.Locale;
 
@@ -9,10 +10,19 @@ import hudson.model.Run;
 import org.eclipse.hudson.graph.ColorPalette;
 
 /**
+ * One status shown in a statuses column.  Kept small, since views of thousands of jobs keep
+ * a few of these per job: everything that only depends on the kind of status is looked up in
+ * {@link StatusType}, and the rest is worked out when the page asks for it.
+ *
  * @author jacob robertson
  */
 public class BuildInfo implements Comparable<BuildInfo> {
 
+	private static final int FIRST = 1;
+	private static final int LATEST_BUILD = 2;
+	private static final int MULTIPLE_BUILDS = 4;
+	private static final int UNDERLINE_HINT = 8;
+
 	/**
 	 * Orange is yellowish, and shows up better on the webpage. 
 	 */
@@ -26,27 +36,39 @@ public class BuildInfo implements Comparable<BuildInfo> {
 	 */
 	private static final Color BLUE_FROM_PALETTE = new Color(0x72,0x9F,0xCF);
 	
-	private BuildHistory.Record buildRecord;
-	private String color;
-	private String underlineStyle;
+	private final Job<?, ?> job;
+	private final BuildSnapshot build;
+	private final StatusType type;
+	private final Locale locale;
 	private String timeAgoString;
-	private long buildTime;
-	private String status;
-	private String urlPart;
-	private boolean isFirst;
-	private boolean isLatestBuild;
-	private boolean multipleBuilds;
+	private int flags;
 	
-	public BuildInfo(BuildHistory.Record buildRecord, String color, String underlineStyle,
-			long buildTime, String status, String urlPart,
-			boolean isLatestBuild) {
-		this.buildRecord = buildRecord;
-		this.color = color;
-		this.underlineStyle = underlineStyle;
-		this.buildTime = buildTime;
-		this.status = status;
-		this.urlPart = urlPart;
-		this.isLatestBuild = isLatestBuild;
+	/**
+	 * @param locale the locale of the status message
+	 * @param isShowColorblindUnderlineHint whether the status is underlined in its own way
+	 */
+	public BuildInfo(Job<?, ?> job, BuildSnapshot build, StatusType type, Locale locale,
+			boolean isShowColorblindUnderlineHint, boolean isLatestBuild) {
+		this.job = job;
+		this.build = build;
+		this.type = type;
+		this.locale = locale;
+		setFlag(UNDERLINE_HINT, isShowColorblindUnderlineHint);
+		setFlag(LATEST_BUILD, isLatestBuild);
+	}
+	private BuildInfo(BuildInfo that, String timeAgoString) {
+		this.job = that.job;
+		this.build = that.build;
+		this.type = that.type;
+		this.locale = that.locale;
+		this.flags = that.flags;
+		this.timeAgoString = timeAgoString;
+	}
+	/**
+	 * A copy of this status with another time ago, leaving this one as it is.
+	 */
+	BuildInfo withTimeAgoString(String timeAgoString) {
+		return new BuildInfo(this, timeAgoString);
 	}
 	public static String getUnstableColorString() {
 		return UNSTABLE_COLOR;
@@ -84,38 +106,59 @@ public class BuildInfo implements Comparable<BuildInfo> {
 		}
 		return buf.toString();
 	}
+	/**
+	 * Loads the build itself, which can mean reading it from disk, so nothing
+	 * used while rendering a view should need this.
+	 */
 	public Run<?, ?> getRun() {
-		return buildRecord.getBuild();
+		ColumnMetrics.RUNS_LOADED.increment();
+		return job.getBuildByNumber(build.getNumber());
+	}
+	public int getNumber() {
+		return build.getNumber();
+	}
+	public BuildSnapshot getSnapshot() {
+		return build;
+	}
+	public StatusType getType() {
+		return type;
 	}
 	public String getColor() {
-		return color;
+		return type.getColor();
 	}
 	public String getTimeAgoString() {
 		return timeAgoString;
 	}
 	public String getStatus() {
-		return status;
+		return type.getMessage(locale);
 	}
+	/**
+	 * The last part of the status's url - a permalink when there is one.
+	 */
 	public String getUrlPart() {
-		return urlPart;
+		String permalink = type.getPermalink();
+		if (permalink != null) {
+			return permalink;
+		}
+		return String.valueOf(build.getNumber());
 	}
 	public boolean isFirst() {
-		return isFirst;
+		return isFlag(FIRST);
 	}
 	public boolean isLatestBuild() {
-		return isLatestBuild;
+		return isFlag(LATEST_BUILD);
 	}
 	public long getBuildTime() {
-		return buildTime;
+		return build.getTimeInMillis();
 	}
 	public boolean isMultipleBuilds() {
-		return multipleBuilds;
+		return isFlag(MULTIPLE_BUILDS);
 	}
 	
 	// ----
 	
 	public String getLatestBuildString(Locale locale) {
-    	if (isLatestBuild) {
+    	if (isLatestBuild()) {
     		return " (" + Messages.latestBuild() + ")";
     	} else {
     		return "";
@@ -125,39 +168,39 @@ public class BuildInfo implements Comparable<BuildInfo> {
 		return Messages._startedAgo(timeAgoString).toString(locale);
 	}
 	public String getBuiltAt(Locale locale) {
-		String time = AbstractStatusesColumn.getBuildTimeString(buildTime, locale);
+		String time = AbstractStatusesColumn.getBuildTimeString(getBuildTime(), locale);
 		return Messages._builtAt(time).toString(locale);
 	}
 	public String getLastedDuration(Locale locale) {
-		return Messages._lastedDuration(getDurationString(buildRecord)).toString(locale);
+		return Messages._lastedDuration(getDurationString(build)).toString(locale);
 	}
         
-        private String getDurationString(BuildHistory.Record buildRecord) {
-            if (buildRecord.isBuilding()) {
+        private String getDurationString(BuildSnapshot build) {
+            if (build.isBuilding()) {
                 return hudson.model.Messages.Run_InProgressDuration(
-                        Util.getTimeSpanString(System.currentTimeMillis() - buildRecord.getTimeInMillis()));
+                        Util.getTimeSpanString(System.currentTimeMillis() - build.getTimeInMillis()));
             }
-            return Util.getTimeSpanString(buildRecord.getDuration());
+            return Util.getTimeSpanString(build.getDuration());
         }
         
 	public String getFontWeight() {
-    	if (isLatestBuild && multipleBuilds) {
+    	if (isLatestBuild() && isMultipleBuilds()) {
     		return "bold";
     	} else {
     		return "normal";
     	}
 	}
 	public String getUnderlineStyle() {
-		if (underlineStyle == null) {
+		if (!isFlag(UNDERLINE_HINT)) {
 			return "0px";
 		}
-		return underlineStyle;
+		return type.getUnderlineStyle();
 	}
 	public void setFirst(boolean first) {
-		this.isFirst = first;
+		setFlag(FIRST, first);
 	}
 	public void setMultipleBuilds(boolean multipleBuilds) {
-		this.multipleBuilds = multipleBuilds;
+		setFlag(MULTIPLE_BUILDS, multipleBuilds);
 	}
 	public void setTimeAgoString(String timeAgoString) {
 		this.timeAgoString = timeAgoString;
@@ -166,13 +209,86 @@ public class BuildInfo implements Comparable<BuildInfo> {
 	 * Sort by build number.
 	 */
 	public int compareTo(BuildInfo that) {
-		return new Integer(that.buildRecord.getNumber()).compareTo(this.buildRecord.getNumber());
+		return new Integer(that.build.getNumber()).compareTo(this.build.getNumber());
 	}
 	public String getTextDecoration() {
-		if (underlineStyle == null) {
+		if (!isFlag(UNDERLINE_HINT)) {
 			return "underline";
 		} else {
 			return "none";
 		}
 	}
+	private boolean isFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+	private void setFlag(int flag, boolean on) {
+		if (on) {
+			flags |= flag;
+		} else {
+			flags &= ~flag;
+		}
+	}
+
+	/**
+	 * The kinds of status, with what they look like.
+	 */
+	public static enum StatusType {
+		FAILED(FAILED_COLOR, AbstractStatusesColumn.FAILED_UNDERLINE_STYLE, "lastFailedBuild"),
+		UNSTABLE(UNSTABLE_COLOR, AbstractStatusesColumn.UNSTABLE_UNDERLINE_STYLE, null),
+		STABLE(getStableColorString(), AbstractStatusesColumn.STABLE_UNDERLINE_STYLE, "lastStableBuild"),
+		ABORTED(OTHER_COLOR, AbstractStatusesColumn.OTHER_UNDERLINE_STYLE, null),
+		NOT_BUILT(OTHER_COLOR, AbstractStatusesColumn.OTHER_UNDERLINE_STYLE, null);
+
+		private final String color;
+		private final String underlineStyle;
+		private final String permalink;
+
+		private StatusType(String color, String underlineStyle, String permalink) {
+			this.color = color;
+			this.underlineStyle = underlineStyle;
+			this.permalink = permalink;
+		}
+		/**
+		 * The status a build with the given result shows as - builds with no result yet
+		 * look the same as ones that weren't built.
+		 */
+		static StatusType of(Result result) {
+			if (Result.FAILURE.equals(result)) {
+				return FAILED;
+			} else if (Result.UNSTABLE.equals(result)) {
+				return UNSTABLE;
+			} else if (Result.SUCCESS.equals(result)) {
+				return STABLE;
+			} else if (Result.ABORTED.equals(result)) {
+				return ABORTED;
+			}
+			return NOT_BUILT;
+		}
+		public String getColor() {
+			return color;
+		}
+		public String getUnderlineStyle() {
+			return underlineStyle;
+		}
+		/**
+		 * @return null when the status is linked to by its build number
+		 */
+		String getPermalink() {
+			return permalink;
+		}
+		String getMessage(Locale locale) {
+			switch (this) {
+			case FAILED:
+				return AbstractStatusesColumn.getFailedMessage(locale);
+			case UNSTABLE:
+				return AbstractStatusesColumn.getUnstableMessage(locale);
+			case STABLE:
+				return AbstractStatusesColumn.getStableMessage(locale);
+			case ABORTED:
+				return AbstractStatusesColumn.getAbortedMessage(locale);
+			default:
+				return AbstractStatusesColumn.getNotBuiltMessage(locale);
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Result;
+
+import com.robestone.hudson.compactcolumns.BuildInfo.StatusType;
+
+/**
+ * A job's latest completed builds, newest first, for the status sparkline.  The history is only
+ * walked once, to fill the ring; after that each completed build goes in over the oldest one,
+ * so showing the builds is a matter of reading the arrays.
+ * <p>
+ * The ring is changed in place, so callers reading more than one build at a time should
+ * hold its lock for as long as they read.
+ *
+ * @author jacob robertson
+ */
+final class BuildRing {
+
+	static final int CAPACITY = 50;
+
+	private static final StatusType[] TYPES = StatusType.values();
+
+	private final byte[] types = new byte[CAPACITY];
+	private final int[] numbers = new int[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+	/**
+	 * The slot of the newest build.
+	 */
+	private int head = CAPACITY - 1;
+	private int size;
+	/**
+	 * The last completed build number at the time the ring was current,
+	 * so we can tell when we have missed an event.
+	 */
+	private int newest;
+
+	private BuildRing() {
+	}
+	@SuppressWarnings("rawtypes")
+	static BuildRing scan(BuildHistory history) {
+		ColumnMetrics.HISTORY_TRAVERSALS.increment();
+		int[] foundNumbers = new int[CAPACITY];
+		long[] foundTimes = new long[CAPACITY];
+		Result[] foundResults = new Result[CAPACITY];
+		int found = 0;
+		int scanned = 0;
+		BuildHistory.Record record = history.getLast();
+		while (record != null && found < CAPACITY) {
+			scanned++;
+			if (!record.isBuilding()) {
+				foundNumbers[found] = record.getNumber();
+				foundTimes[found] = record.getTimeInMillis();
+				foundResults[found] = record.getResult();
+				found++;
+			}
+			record = record.getPrevious();
+		}
+		ColumnMetrics.RECORDS_SCANNED.add(scanned);
+		BuildRing ring = new BuildRing();
+		for (int i = found - 1; i >= 0; i--) {
+			ring.add(foundNumbers[i], foundTimes[i], foundResults[i]);
+		}
+		return ring;
+	}
+	/**
+	 * @return whether the ring still has the job's last completed build as its newest
+	 */
+	synchronized boolean isCurrent(BuildSnapshot lastCompleted) {
+		return newest == (lastCompleted == null ? 0 : lastCompleted.getNumber());
+	}
+	/**
+	 * @return false if the build can't go in without another scan, because it finished
+	 * out of order
+	 */
+	synchronized boolean onCompleted(int number, long time, Result result) {
+		if (number <= newest) {
+			return false;
+		}
+		add(number, time, result);
+		return true;
+	}
+	private void add(int number, long time, Result result) {
+		head = (head + 1) % CAPACITY;
+		types[head] = (byte) StatusType.of(result).ordinal();
+		numbers[head] = number;
+		times[head] = time;
+		if (size < CAPACITY) {
+			size++;
+		}
+		newest = number;
+	}
+	synchronized int size() {
+		return size;
+	}
+	/**
+	 * @param i 0 for the newest build
+	 */
+	synchronized StatusType getType(int i) {
+		return TYPES[types[slot(i)]];
+	}
+	synchronized int getNumber(int i) {
+		return numbers[slot(i)];
+	}
+	synchronized long getTime(int i) {
+		return times[slot(i)];
+	}
+	private int slot(int i) {
+		return (head - i + CAPACITY) % CAPACITY;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Result;
+
+/**
+ * The handful of values we need from a build record, copied out so they can be
+ * kept between requests without holding on to the history itself.
+ *
+ * @author jacob robertson
+ */
+public final class BuildSnapshot {
+
+	private final int number;
+	private final long timeInMillis;
+	private final long duration;
+	private final Result result;
+	private final boolean building;
+
+	public BuildSnapshot(int number, long timeInMillis, long duration, Result result, boolean building) {
+		this.number = number;
+		this.timeInMillis = timeInMillis;
+		this.duration = duration;
+		this.result = result;
+		this.building = building;
+	}
+	@SuppressWarnings("rawtypes")
+	static BuildSnapshot of(BuildHistory.Record record) {
+		if (record == null) {
+			return null;
+		}
+		return new BuildSnapshot(record.getNumber(), record.getTimeInMillis(), record.getDuration(),
+				record.getResult(), record.isBuilding());
+	}
+	public int getNumber() {
+		return number;
+	}
+	public long getTimeInMillis() {
+		return timeInMillis;
+	}
+	public long getDuration() {
+		return duration;
+	}
+	public Result getResult() {
+		return result;
+	}
+	public boolean isBuilding() {
+		return building;
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Job;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Remembers the statuses computed for each column and job for the length of one request,
+ * so that column.jelly only runs the status pipeline once per row.
+ *
+ * @author jacob robertson
+ */
+class BuildsMemo {
+
+	private static final String ATTRIBUTE_NAME = BuildsMemo.class.getName();
+
+	private final Map<Key, List<BuildInfo>> builds = new HashMap<Key, List<BuildInfo>>();
+
+	/**
+	 * @return the memo for the current request, or null when we are not inside a request
+	 */
+	static BuildsMemo getCurrent() {
+		StaplerRequest request = Stapler.getCurrentRequest();
+		if (request == null) {
+			return null;
+		}
+		BuildsMemo memo = (BuildsMemo) request.getAttribute(ATTRIBUTE_NAME);
+		if (memo == null) {
+			memo = new BuildsMemo();
+			request.setAttribute(ATTRIBUTE_NAME, memo);
+		}
+		return memo;
+	}
+	/**
+	 * The locale of the current request, which is the same one column.jelly passes in.
+	 */
+	static Locale getCurrentLocale() {
+		StaplerRequest request = Stapler.getCurrentRequest();
+		if (request == null) {
+			return Locale.getDefault();
+		}
+		return request.getLocale();
+	}
+	List<BuildInfo> get(AbstractStatusesColumn column, Job<?, ?> job, Locale locale) {
+		return builds.get(new Key(column, job, locale));
+	}
+	void put(AbstractStatusesColumn column, Job<?, ?> job, Locale locale, List<BuildInfo> infos) {
+		builds.put(new Key(column, job, locale), infos);
+	}
+
+	/**
+	 * Columns and jobs are compared by identity - two columns with the same settings
+	 * on one page are still two columns.
+	 */
+	private static class Key {
+		private final AbstractStatusesColumn column;
+		private final Job<?, ?> job;
+		private final Locale locale;
+
+		Key(AbstractStatusesColumn column, Job<?, ?> job, Locale locale) {
+			this.column = column;
+			this.job = job;
+			this.locale = locale;
+		}
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(column);
+			hash = 31 * hash + System.identityHashCode(job);
+			hash = 31 * hash + (locale == null ? 0 : locale.hashCode());
+			return hash;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) obj;
+			return column == that.column && job == that.job
+				&& (locale == null ? that.locale == null : locale.equals(that.locale));
+		}
+	}
+}
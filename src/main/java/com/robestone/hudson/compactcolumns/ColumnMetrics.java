@@ -0,0 +1,299 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Hudson;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Timings and counts of the work the columns do while a view renders, so we can tell how much
+ * of a slow page is ours.  Shown at /plugin/compact-columns/metrics, and as JSON under
+ * /plugin/compact-columns/metrics/json.
+ * <p>
+ * Recording is off unless turned on in the global configuration.  When it is off, every
+ * call here is one read of a volatile flag; when it is on, it is a few uncontended atomic adds.
+ *
+ * @author jacob robertson
+ */
+public final class ColumnMetrics {
+
+	private static final long NOT_TIMING = Long.MIN_VALUE;
+	private static final ColumnMetrics INSTANCE = new ColumnMetrics();
+
+	private static volatile boolean enabled;
+	private static volatile long since = System.currentTimeMillis();
+
+	private static final List<Timer> timers = new ArrayList<Timer>();
+	private static final List<Counter> counters = new ArrayList<Counter>();
+
+	static final Timer GET_BUILDS = new Timer("getBuilds", "Working out the statuses of one job for a statuses column");
+	static final Timer BUILD_TOOL_TIP = new Timer("buildToolTip", "Building the tool-tip of one status");
+	static final Timer JOB_STYLE = new Timer("jobStyle", "Working out the style of one job name");
+	static final Timer JOB_TOOL_TIP = new Timer("jobToolTip", "Building the tool-tip of one job name");
+
+	static final Counter ROWS = new Counter("rows", "Statuses shown");
+	static final Counter MEMO_HITS = new Counter("memoHits", "Statuses asked for again within the same request");
+	static final Counter STATUS_CACHE_HITS = new Counter("statusCacheHits", "Job status snapshots found in the cache");
+	static final Counter STATUS_CACHE_MISSES = new Counter("statusCacheMisses", "Job status snapshots taken from the build history");
+	static final Counter HISTORY_TRAVERSALS = new Counter("historyTraversals", "Walks back through a build history");
+	static final Counter RECORDS_SCANNED = new Counter("recordsScanned", "Build history records looked at while walking back");
+	static final Counter RUNS_LOADED = new Counter("runsLoaded", "Builds loaded rather than read from the build history");
+	static final Counter FRAGMENT_HITS = new Counter("fragmentHits", "Cells taken from the fragment cache");
+	static final Counter FRAGMENT_MISSES = new Counter("fragmentMisses", "Cells rendered because the fragment cache had none, or a stale one");
+
+	private ColumnMetrics() {
+	}
+
+	static ColumnMetrics getInstance() {
+		return INSTANCE;
+	}
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	static void setEnabled(boolean on) {
+		if (on && !enabled) {
+			reset();
+		}
+		enabled = on;
+	}
+	/**
+	 * @return the value to hand to {@link Timer#stop(long)}
+	 */
+	static long start() {
+		if (!enabled) {
+			return NOT_TIMING;
+		}
+		return System.nanoTime();
+	}
+	static void reset() {
+		for (Timer timer : timers) {
+			timer.reset();
+		}
+		for (Counter counter : counters) {
+			counter.reset();
+		}
+		since = System.currentTimeMillis();
+	}
+
+	public boolean isRecording() {
+		return enabled;
+	}
+	public Date getSince() {
+		return new Date(since);
+	}
+	public List<Timer> getTimers() {
+		return Collections.unmodifiableList(timers);
+	}
+	public List<Counter> getCounters() {
+		return Collections.unmodifiableList(counters);
+	}
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("enabled", enabled);
+		json.put("since", since);
+		JSONObject timerJson = new JSONObject();
+		for (Timer timer : timers) {
+			timerJson.put(timer.getName(), timer.toJSON());
+		}
+		json.put("timers", timerJson);
+		JSONObject counterJson = new JSONObject();
+		for (Counter counter : counters) {
+			counterJson.put(counter.getName(), counter.getCount());
+		}
+		json.put("counters", counterJson);
+		return json;
+	}
+	public void doJson(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().print(toJSON().toString());
+	}
+	public void doReset(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+		if (!"POST".equals(req.getMethod())) {
+			rsp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		reset();
+		rsp.sendRedirect(".");
+	}
+
+	/**
+	 * Counts and a histogram of how long something took.  Bucket i holds the times
+	 * under 2^i microseconds that didn't fit in bucket i - 1, and the last bucket holds
+	 * everything longer.
+	 */
+	public static final class Timer {
+		private static final int BUCKETS = 24;
+		private static final int COUNT = 0;
+		private static final int TOTAL = 1;
+		private static final int FIRST_BUCKET = 2;
+
+		private final String name;
+		private final String description;
+		private final StripedCounters cells = new StripedCounters(FIRST_BUCKET + BUCKETS);
+		private final AtomicLong max = new AtomicLong();
+
+		private Timer(String name, String description) {
+			this.name = name;
+			this.description = description;
+			timers.add(this);
+		}
+		void stop(long start) {
+			if (start != NOT_TIMING) {
+				record(System.nanoTime() - start);
+			}
+		}
+		private void record(long nanos) {
+			cells.add(COUNT, 1);
+			cells.add(TOTAL, nanos);
+			cells.add(FIRST_BUCKET + getBucket(nanos), 1);
+			long current = max.get();
+			while (nanos > current && !max.compareAndSet(current, nanos)) {
+				current = max.get();
+			}
+		}
+		private static int getBucket(long nanos) {
+			long micros = nanos / 1000;
+			int bucket = 64 - Long.numberOfLeadingZeros(micros);
+			return Math.min(bucket, BUCKETS - 1);
+		}
+		private void reset() {
+			cells.reset();
+			max.set(0);
+		}
+		public String getName() {
+			return name;
+		}
+		public String getDescription() {
+			return description;
+		}
+		public long getCount() {
+			return cells.get(COUNT);
+		}
+		public long getTotalMicros() {
+			return cells.get(TOTAL) / 1000;
+		}
+		public long getTotalMillis() {
+			return cells.get(TOTAL) / 1000000;
+		}
+		public long getMeanMicros() {
+			long count = getCount();
+			if (count == 0) {
+				return 0;
+			}
+			return getTotalMicros() / count;
+		}
+		public long getMaxMicros() {
+			return max.get() / 1000;
+		}
+		public long[] getHistogram() {
+			long[] histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = cells.get(FIRST_BUCKET + i);
+			}
+			return histogram;
+		}
+		/**
+		 * @return the upper bound of the bucket the percentile falls in
+		 */
+		public long getPercentileMicros(double percentile) {
+			long[] histogram = getHistogram();
+			long count = 0;
+			for (long n : histogram) {
+				count += n;
+			}
+			if (count == 0) {
+				return 0;
+			}
+			long wanted = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS - 1; i++) {
+				seen += histogram[i];
+				if (seen >= wanted) {
+					return 1L << i;
+				}
+			}
+			return getMaxMicros();
+		}
+		JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.put("count", getCount());
+			json.put("totalMicros", getTotalMicros());
+			json.put("meanMicros", getMeanMicros());
+			json.put("maxMicros", getMaxMicros());
+			json.put("p50Micros", getPercentileMicros(50));
+			json.put("p95Micros", getPercentileMicros(95));
+			json.put("p99Micros", getPercentileMicros(99));
+			json.put("histogram", JSONArray.fromObject(getHistogram()));
+			return json;
+		}
+	}
+
+	public static final class Counter {
+		private final String name;
+		private final String description;
+		private final StripedCounters cells = new StripedCounters(1);
+
+		private Counter(String name, String description) {
+			this.name = name;
+			this.description = description;
+			counters.add(this);
+		}
+		void increment() {
+			add(1);
+		}
+		void add(long n) {
+			if (enabled) {
+				cells.add(0, n);
+			}
+		}
+		private void reset() {
+			cells.reset();
+		}
+		public String getName() {
+			return name;
+		}
+		public String getDescription() {
+			return description;
+		}
+		public long getCount() {
+			return cells.get(0);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids for the status columns a page was drawn with, so the page can ask for the
+ * column's cells afterwards.  Columns live as long as their view's configuration, and are only
+ * held weakly here, so a page from before the view was reconfigured simply gets nothing back.
+ *
+ * @author jacob robertson
+ */
+final class ColumnRegistry {
+
+	private static final AtomicLong nextId = new AtomicLong();
+	private static final Map<AbstractStatusesColumn, String> ids = new WeakHashMap<AbstractStatusesColumn, String>();
+	private static final ConcurrentMap<String, WeakReference<AbstractStatusesColumn>> columns =
+		new ConcurrentHashMap<String, WeakReference<AbstractStatusesColumn>>();
+
+	private ColumnRegistry() {
+	}
+
+	static String getId(AbstractStatusesColumn column) {
+		synchronized (ids) {
+			String id = ids.get(column);
+			if (id == null) {
+				id = String.valueOf(nextId.incrementAndGet());
+				ids.put(column, id);
+				columns.put(id, new WeakReference<AbstractStatusesColumn>(column));
+				if (columns.size() > 2 * ids.size()) {
+					purge();
+				}
+			}
+			return id;
+		}
+	}
+	/**
+	 * @return the column, or null if it has since been thrown away
+	 */
+	static AbstractStatusesColumn get(String id) {
+		if (id == null) {
+			return null;
+		}
+		WeakReference<AbstractStatusesColumn> ref = columns.get(id);
+		if (ref == null) {
+			return null;
+		}
+		return ref.get();
+	}
+	private static void purge() {
+		Iterator<WeakReference<AbstractStatusesColumn>> refs = columns.values().iterator();
+		while (refs.hasNext()) {
+			if (refs.next().get() == null) {
+				refs.remove();
+			}
+		}
+	}
+}
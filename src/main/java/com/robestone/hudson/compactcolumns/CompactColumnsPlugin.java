@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.Extension;
+import hudson.Plugin;
+import hudson.XmlFile;
+import hudson.model.Descriptor.FormException;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.View;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.PluginServletFilter;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.TimeAgoType;
+
+/**
+ * Holds the global settings for the compact columns, and answers the requests
+ * made from the columns' scripts under /plugin/compact-columns/.
+ *
+ * @author jacob robertson
+ */
+public class CompactColumnsPlugin extends Plugin {
+
+	static final String URL = "plugin/compact-columns/";
+	static final int DEFAULT_STATUS_SCAN_DEPTH = 100;
+	static final int DEFAULT_FRAGMENT_CACHE_MEMORY = 16;
+	static final String CELLS_JOBS_ATTRIBUTE = "compactColumnsJobs";
+
+	private boolean lazyToolTips;
+	private boolean progressive;
+	private boolean clientTimes;
+	private boolean recordMetrics;
+	private boolean conditionalViews;
+	private boolean liveUpdates;
+	/**
+	 * Goes up whenever the settings or a view change, since they change how pages look.
+	 */
+	private transient volatile long configVersion;
+	private int statusScanDepth = DEFAULT_STATUS_SCAN_DEPTH;
+	/**
+	 * How many threads work out the statuses of a view, 0 or 1 to work them out on the request thread.
+	 */
+	private int parallelism;
+	private transient ForkJoinPool statusPool;
+	/**
+	 * How many cells the {@link FragmentCache} keeps, 0 to render every cell every time.
+	 */
+	private int fragmentCacheSize;
+	/**
+	 * Roughly how much memory the {@link FragmentCache} can take up, in megabytes.
+	 */
+	private int fragmentCacheMemory = DEFAULT_FRAGMENT_CACHE_MEMORY;
+
+	@Override
+	public void start() throws Exception {
+		load();
+		ColumnMetrics.setEnabled(recordMetrics);
+		configureFragmentCache();
+		// so pages from before a restart don't match
+		configVersion = System.currentTimeMillis();
+		PluginServletFilter.addFilter(new ViewCacheFilter());
+	}
+	@Override
+	public void stop() throws Exception {
+		setParallelism(0);
+	}
+	@Override
+	public void configure(StaplerRequest req, JSONObject formData) throws IOException, ServletException, FormException {
+		lazyToolTips = formData.optBoolean("compactColumnsLazyToolTips");
+		progressive = formData.optBoolean("compactColumnsProgressive");
+		clientTimes = formData.optBoolean("compactColumnsClientTimes");
+		conditionalViews = formData.optBoolean("compactColumnsConditionalViews");
+		liveUpdates = formData.optBoolean("compactColumnsLiveUpdates");
+		recordMetrics = formData.optBoolean("compactColumnsRecordMetrics");
+		ColumnMetrics.setEnabled(recordMetrics);
+		int depth = Math.max(0, formData.optInt("compactColumnsStatusScanDepth", DEFAULT_STATUS_SCAN_DEPTH));
+		if (depth != statusScanDepth) {
+			statusScanDepth = depth;
+			JobStatusCache.clear();
+		}
+		setParallelism(Math.max(0, formData.optInt("compactColumnsParallelism", 0)));
+		fragmentCacheSize = Math.max(0, formData.optInt("compactColumnsFragmentCacheSize", 0));
+		fragmentCacheMemory = Math.max(0, formData.optInt("compactColumnsFragmentCacheMemory", DEFAULT_FRAGMENT_CACHE_MEMORY));
+		// the other settings change how cells look, so the cache starts again either way
+		configureFragmentCache();
+		configVersion++;
+		save();
+	}
+	/**
+	 * @return the plugin, or null when Hudson isn't running (as in unit tests)
+	 */
+	static CompactColumnsPlugin get() {
+		Hudson hudson = Hudson.getInstance();
+		if (hudson == null) {
+			return null;
+		}
+		return hudson.getPlugin(CompactColumnsPlugin.class);
+	}
+	/**
+	 * How many builds back to walk when working out a job's statuses, 0 for no limit.
+	 */
+	static int getStatusScanDepthSetting() {
+		CompactColumnsPlugin plugin = get();
+		if (plugin == null) {
+			return DEFAULT_STATUS_SCAN_DEPTH;
+		}
+		return plugin.statusScanDepth;
+	}
+	/**
+	 * @return the pool to work out statuses on, or null to work them out on the request thread
+	 */
+	static ForkJoinPool getStatusPool() {
+		CompactColumnsPlugin plugin = get();
+		if (plugin == null) {
+			return null;
+		}
+		return plugin.getPool();
+	}
+	private synchronized ForkJoinPool getPool() {
+		if (parallelism <= 1) {
+			return null;
+		}
+		if (statusPool == null) {
+			statusPool = new ForkJoinPool(parallelism);
+		}
+		return statusPool;
+	}
+	private void configureFragmentCache() {
+		FragmentCache.configure(fragmentCacheSize, fragmentCacheMemory * 1024L * 1024L);
+	}
+	private synchronized void setParallelism(int parallelism) {
+		if (parallelism != this.parallelism && statusPool != null) {
+			statusPool.shutdown();
+			statusPool = null;
+		}
+		this.parallelism = parallelism;
+	}
+	static boolean isConditionalViewsEnabled() {
+		CompactColumnsPlugin plugin = get();
+		return plugin != null && plugin.isConditionalViews();
+	}
+	static long getConfigVersion() {
+		CompactColumnsPlugin plugin = get();
+		if (plugin == null) {
+			return 0;
+		}
+		return plugin.configVersion;
+	}
+	private static void viewsChanged() {
+		CompactColumnsPlugin plugin = get();
+		if (plugin != null) {
+			plugin.configVersion++;
+		}
+	}
+	static boolean isLazyToolTipsEnabled() {
+		CompactColumnsPlugin plugin = get();
+		return plugin != null && plugin.isLazyToolTips();
+	}
+	public boolean isLazyToolTips() {
+		return lazyToolTips;
+	}
+	static boolean isClientTimesEnabled() {
+		CompactColumnsPlugin plugin = get();
+		return plugin != null && plugin.isClientTimes();
+	}
+	public boolean isClientTimes() {
+		return clientTimes;
+	}
+	static boolean isLiveUpdatesEnabled() {
+		CompactColumnsPlugin plugin = get();
+		return plugin != null && plugin.isLiveUpdates();
+	}
+	public boolean isLiveUpdates() {
+		return liveUpdates;
+	}
+	static boolean isProgressiveEnabled() {
+		CompactColumnsPlugin plugin = get();
+		return plugin != null && plugin.isProgressive();
+	}
+	public boolean isProgressive() {
+		return progressive;
+	}
+	public boolean isConditionalViews() {
+		return conditionalViews;
+	}
+	/**
+	 * Whether the columns record how long they take, see {@link ColumnMetrics}.
+	 */
+	public boolean isRecordMetrics() {
+		return recordMetrics;
+	}
+	public int getStatusScanDepth() {
+		return statusScanDepth;
+	}
+	public int getParallelism() {
+		return parallelism;
+	}
+	public int getFragmentCacheSize() {
+		return fragmentCacheSize;
+	}
+	public int getFragmentCacheMemory() {
+		return fragmentCacheMemory;
+	}
+	/**
+	 * The page at /plugin/compact-columns/metrics.
+	 */
+	public ColumnMetrics getMetrics() {
+		return ColumnMetrics.getInstance();
+	}
+
+	/**
+	 * The tool-tip of one status in a statuses column.
+	 */
+	public void doStatusToolTip(StaplerRequest req, StaplerResponse rsp,
+			@QueryParameter String job, @QueryParameter int number,
+			@QueryParameter String timeAgoType, @QueryParameter boolean multiple) throws IOException {
+		TimeAgoType type = toTimeAgoType(timeAgoType);
+		if (type == null) {
+			rsp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		Job<?, ?> found = getJob(job);
+		if (found == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String tip = AbstractStatusesColumn.getToolTip(found, number, req.getLocale(), type, multiple);
+		if (tip == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		writeToolTip(rsp, tip);
+	}
+	/**
+	 * @return the type the tool-tip URL asked for, or null if it is missing or not one we know
+	 */
+	static TimeAgoType toTimeAgoType(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (TimeAgoType type : TimeAgoType.values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		return null;
+	}
+	/**
+	 * The cells of a statuses column for a few jobs at a time, for pages drawn progressively.
+	 * The cells come back as the rows of a table, each row marked with its job's name.
+	 */
+	public void doStatusCells(StaplerRequest req, StaplerResponse rsp,
+			@QueryParameter String column) throws IOException, ServletException {
+		AbstractStatusesColumn found = ColumnRegistry.get(column);
+		String[] names = req.getParameterValues("job");
+		if (found == null || names == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		List<Job<?, ?>> jobs = new ArrayList<Job<?, ?>>();
+		for (String name : names) {
+			Job<?, ?> job = getJob(name);
+			if (job != null) {
+				jobs.add(job);
+			}
+		}
+		req.setAttribute(CELLS_JOBS_ATTRIBUTE, jobs);
+		rsp.forward(found, "cells", req);
+	}
+	/**
+	 * The statuses of a view's jobs, as JSON or (with format=csv) as CSV.
+	 * @param view the view's name, or none for the primary view
+	 */
+	public void doStatusFeed(StaplerRequest req, StaplerResponse rsp,
+			@QueryParameter String view, @QueryParameter String format) throws IOException {
+		Hudson hudson = Hudson.getInstance();
+		View found = (view == null ? hudson.getPrimaryView() : hudson.getView(view));
+		if (found == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		found.checkPermission(View.READ);
+		new StatusFeed(found).write(req, rsp, "csv".equals(format));
+	}
+	/**
+	 * Answers live-updates.js with the jobs whose builds have changed since the given sequence
+	 * number, waiting for one to change if none has yet, or with an empty 204 once the wait
+	 * runs out.  The page then fetches just those jobs' cells from {@link #doStatusCells},
+	 * or all its cells when it is too far behind.
+	 */
+	public void doStatusUpdates(StaplerRequest req, StaplerResponse rsp,
+			@QueryParameter long since) throws IOException {
+		StatusUpdates.Update update;
+		try {
+			update = StatusUpdates.await(since, StatusUpdates.TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		rsp.setHeader("Cache-Control", "private, no-cache");
+		if (update != null && update.getJobs().isEmpty()) {
+			rsp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			return;
+		}
+		JSONObject json = new JSONObject();
+		if (update == null) {
+			json.put("all", true);
+			json.put("sequence", StatusUpdates.getSequence());
+		} else {
+			JSONArray jobs = new JSONArray();
+			for (String name : update.getJobs()) {
+				// no point in telling the page about jobs it can't show
+				if (getJob(name) != null) {
+					jobs.add(name);
+				}
+			}
+			json.put("sequence", update.getSequence());
+			json.put("jobs", jobs);
+		}
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.getWriter().print(json);
+	}
+	/**
+	 * The "time ago" strings of the request's locale, for client-times.js.
+	 */
+	public void doTimeAgoStrings(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		rsp.setContentType("application/json;charset=UTF-8");
+		rsp.setHeader("Cache-Control", "public, max-age=86400");
+		rsp.setHeader("Vary", "Accept-Language");
+		rsp.getWriter().print(ShortTimestamps.getAllStringsJSON(req.getLocale()));
+	}
+	/**
+	 * The tool-tip of the job name column.
+	 */
+	public void doJobToolTip(StaplerRequest req, StaplerResponse rsp,
+			@QueryParameter String job, @QueryParameter boolean description,
+			@QueryParameter boolean lastBuild) throws IOException {
+		Job<?, ?> found = getJob(job);
+		if (found == null) {
+			rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		JobNameColorColumn column = new JobNameColorColumn(false, description, lastBuild, null);
+		writeToolTip(rsp, column.getToolTip(found, req.getLocale()));
+	}
+	private static Job<?, ?> getJob(String name) {
+		if (name == null) {
+			return null;
+		}
+		Job<?, ?> job = Hudson.getInstance().getItemByFullName(name, Job.class);
+		if (job == null || !job.hasPermission(Item.READ)) {
+			return null;
+		}
+		return job;
+	}
+	private static void writeToolTip(StaplerResponse rsp, String tip) throws IOException {
+		rsp.setContentType("text/html;charset=UTF-8");
+		rsp.getWriter().print(tip);
+	}
+	static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// every JVM has UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Views are saved along with what holds them - Hudson itself, or a user for their own views -
+	 * so either being saved may mean a view was reconfigured.
+	 */
+	@Extension
+	public static class SaveableListenerImpl extends SaveableListener {
+		@Override
+		public void onChange(Saveable o, XmlFile file) {
+			if (o instanceof Hudson || o instanceof User) {
+				viewsChanged();
+			}
+		}
+	}
+}
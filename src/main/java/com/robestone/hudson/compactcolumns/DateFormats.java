@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The date formats used for build times, cached per locale.  Working out a pattern is
+ * shared between threads, but since formats aren't thread safe, each thread gets its own.
+ * <p>
+ * Many builds on a page share the same day (or minute), so the formatted strings
+ * are cached too.
+ *
+ * @author jacob robertson
+ */
+final class DateFormats {
+
+	private static final int DATE = 0;
+	private static final int DATE_TIME = 1;
+	private static final int TIME = 2;
+	/**
+	 * Request locales come from the browser, so don't let them fill up the memory.
+	 * Past this many, the formats of a new locale are worked out each time.
+	 */
+	private static final int MAX_LOCALES = 64;
+
+	private static final ConcurrentMap<Locale, String> datePatterns = new ConcurrentHashMap<Locale, String>();
+	private static final ConcurrentMap<Locale, String> dateTimePatterns = new ConcurrentHashMap<Locale, String>();
+
+	private static final ConcurrentMap<Locale, Boolean> timeShowsSeconds = new ConcurrentHashMap<Locale, Boolean>();
+	private static final ConcurrentMap<Locale, Boolean> dateTimeShowsSeconds = new ConcurrentHashMap<Locale, Boolean>();
+
+	private static final BoundedCache<Key, String> strings = new BoundedCache<Key, String>(4096);
+
+	private static final ThreadLocal<Map<Locale, DateFormat[]>> formats = new ThreadLocal<Map<Locale, DateFormat[]>>() {
+		@Override
+		protected Map<Locale, DateFormat[]> initialValue() {
+			return new HashMap<Locale, DateFormat[]>();
+		}
+	};
+
+	private DateFormats() {
+	}
+
+	/**
+	 * A short date with a 4-digit year.
+	 */
+	static DateFormat getDateFormat(Locale locale) {
+		return getFormat(DATE, locale);
+	}
+	/**
+	 * A short date and time with a 4-digit year.
+	 */
+	static DateFormat getDateTimeFormat(Locale locale) {
+		return getFormat(DATE_TIME, locale);
+	}
+	static DateFormat getTimeFormat(Locale locale) {
+		return getFormat(TIME, locale);
+	}
+	static String getDateString(long time, Locale locale) {
+		return getString(DATE, time, getDay(time), locale);
+	}
+	static String getDateTimeString(long time, Locale locale) {
+		return getString(DATE_TIME, time, getSlot(dateTimeShowsSeconds, DATE_TIME, time, locale), locale);
+	}
+	static String getTimeString(long time, Locale locale) {
+		return getString(TIME, time, getSlot(timeShowsSeconds, TIME, time, locale), locale);
+	}
+	/**
+	 * The day the time falls on in this time zone, counted from 1970.
+	 */
+	static long getDay(long time) {
+		return floorDiv(time + TimeZone.getDefault().getOffset(time), AbstractStatusesColumn.ONE_DAY_MS);
+	}
+	/**
+	 * @return the minute the time falls on, or the time itself if the format shows seconds
+	 */
+	private static long getSlot(ConcurrentMap<Locale, Boolean> showsSeconds, int type, long time, Locale locale) {
+		Boolean seconds = showsSeconds.get(locale);
+		if (seconds == null) {
+			DateFormat format = getFormat(type, locale);
+			seconds = !(format instanceof SimpleDateFormat) || isShowingSeconds(((SimpleDateFormat) format).toPattern());
+			if (showsSeconds.size() < MAX_LOCALES) {
+				showsSeconds.putIfAbsent(locale, seconds);
+			}
+		}
+		if (seconds) {
+			return time;
+		}
+		return floorDiv(time + TimeZone.getDefault().getOffset(time), AbstractStatusesColumn.ONE_MINUTE_MS);
+	}
+	private static boolean isShowingSeconds(String pattern) {
+		String unquoted = pattern.replaceAll("'[^']*'", "");
+		return unquoted.indexOf('s') >= 0 || unquoted.indexOf('S') >= 0;
+	}
+	private static long floorDiv(long x, long y) {
+		long div = x / y;
+		if (x % y != 0 && (x < 0) != (y < 0)) {
+			div--;
+		}
+		return div;
+	}
+	private static String getString(int type, long time, long slot, Locale locale) {
+		Key key = new Key(type, slot, locale);
+		String s = strings.get(key);
+		if (s == null) {
+			s = getFormat(type, locale).format(new Date(time));
+			strings.put(key, s);
+		}
+		return s;
+	}
+	private static DateFormat getFormat(int type, Locale locale) {
+		Map<Locale, DateFormat[]> byLocale = formats.get();
+		DateFormat[] forLocale = byLocale.get(locale);
+		if (forLocale == null) {
+			if (byLocale.size() >= MAX_LOCALES) {
+				return createFormat(type, locale);
+			}
+			forLocale = new DateFormat[3];
+			byLocale.put(locale, forLocale);
+		}
+		DateFormat format = forLocale[type];
+		if (format == null) {
+			format = createFormat(type, locale);
+			forLocale[type] = format;
+		}
+		return format;
+	}
+	private static DateFormat createFormat(int type, Locale locale) {
+		if (type == TIME) {
+			return DateFormat.getTimeInstance(DateFormat.SHORT, locale);
+		}
+		ConcurrentMap<Locale, String> patterns = (type == DATE ? datePatterns : dateTimePatterns);
+		String pattern = patterns.get(locale);
+		if (pattern == null) {
+			DateFormat format;
+			if (type == DATE) {
+				format = DateFormat.getDateInstance(DateFormat.SHORT, locale);
+			} else {
+				format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale);
+			}
+			pattern = toFourDigitYearPattern(format, locale);
+			if (patterns.size() < MAX_LOCALES) {
+				patterns.putIfAbsent(locale, pattern);
+			}
+		}
+		return new SimpleDateFormat(pattern, locale);
+	}
+	/**
+	 * I want to use 4-digit years (for clarity), and that doesn't work out of the box...
+	 */
+	static String toFourDigitYearPattern(DateFormat format, Locale locale) {
+		if (format instanceof SimpleDateFormat) {
+			String s = ((SimpleDateFormat) format).toPattern();
+			if (!s.contains("yyyy")) {
+				s = s.replace("yy", "yyyy");
+			}
+			return s;
+		} else {
+			// shown by unit test to not be a problem...
+			throw new IllegalArgumentException("Can't handle locale: " + locale);
+		}
+	}
+
+	private static class Key {
+		private final int type;
+		private final long slot;
+		private final Locale locale;
+
+		Key(int type, long slot, Locale locale) {
+			this.type = type;
+			this.slot = slot;
+			this.locale = locale;
+		}
+		@Override
+		public int hashCode() {
+			int hash = type;
+			hash = 31 * hash + (int) (slot ^ (slot >>> 32));
+			hash = 31 * hash + locale.hashCode();
+			return hash;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) obj;
+			return type == that.type && slot == that.slot && locale.equals(that.locale);
+		}
+	}
+}
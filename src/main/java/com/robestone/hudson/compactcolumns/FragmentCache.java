@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Job;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rendered cells, kept from one page to the next, for columns whose cells only change when the
+ * job's builds do.  A cell is good for as long as the job's {@link Version} stays the same, which
+ * the run and item listeners mostly see to.  The times ago in a cell are left as
+ * markers and filled in fresh each time the cell is used, so they don't keep it from being reused.
+ * <p>
+ * Least recently used cells are dropped once there are too many, or they take up too much memory.
+ *
+ * @author jacob robertson
+ */
+final class FragmentCache {
+
+	private static final String MARKER_START = "@@compact-columns-time-";
+	private static final String MARKER_END = "@@";
+	/**
+	 * Rough size of an entry apart from its html.
+	 */
+	private static final int ENTRY_OVERHEAD = 200;
+
+	private static final LinkedHashMap<Key, Fragment> fragments = new LinkedHashMap<Key, Fragment>(16, 0.75f, true);
+	private static int maxEntries;
+	private static long maxBytes;
+	private static long bytes;
+
+	private FragmentCache() {
+	}
+
+	/**
+	 * @param entries how many cells to keep, or 0 to keep none
+	 * @param memory roughly how many bytes the cells can take up
+	 */
+	static void configure(int entries, long memory) {
+		synchronized (fragments) {
+			maxEntries = entries;
+			maxBytes = memory;
+			clear();
+		}
+	}
+	static boolean isEnabled() {
+		return maxEntries > 0;
+	}
+	/**
+	 * The text to render in place of the i-th time ago, so that it can be filled in later.
+	 */
+	static String getMarker(int i) {
+		return MARKER_START + i + MARKER_END;
+	}
+	/**
+	 * @param stamp anything else the cell depends on that the generation doesn't cover, such as
+	 *   the time bucket for cells with times that can't be left as markers
+	 * @param times the times ago to fill in, or null if the cell has none
+	 * @return the cell, or null if there isn't one that is still good
+	 */
+	static String get(Object column, Job<?, ?> job, Locale locale, String baseUrl, long stamp, List<String> times) {
+		Key key = new Key(column, job, locale, baseUrl);
+		Fragment fragment;
+		synchronized (fragments) {
+			fragment = fragments.get(key);
+		}
+		if (fragment == null || !fragment.version.equals(Version.of(job)) || fragment.stamp != stamp) {
+			ColumnMetrics.FRAGMENT_MISSES.increment();
+			return null;
+		}
+		String html = fill(fragment.html, times);
+		if (html == null) {
+			ColumnMetrics.FRAGMENT_MISSES.increment();
+		} else {
+			ColumnMetrics.FRAGMENT_HITS.increment();
+		}
+		return html;
+	}
+	/**
+	 * @param version the job's version from before the cell was rendered
+	 * @return the cell with its times filled in
+	 */
+	static String put(Object column, Job<?, ?> job, Locale locale, String baseUrl, Version version, long stamp,
+			String html, List<String> times) {
+		if (!isEnabled() || html == null) {
+			return fill(html, times);
+		}
+		Key key = new Key(column, job, locale, baseUrl);
+		Fragment fragment = new Fragment(html, version, stamp);
+		synchronized (fragments) {
+			Fragment old = fragments.put(key, fragment);
+			if (old != null) {
+				bytes -= old.getSize();
+			}
+			bytes += fragment.getSize();
+			Iterator<Fragment> eldest = fragments.values().iterator();
+			while (eldest.hasNext() && (fragments.size() > maxEntries || bytes > maxBytes)) {
+				bytes -= eldest.next().getSize();
+				eldest.remove();
+			}
+		}
+		return fill(html, times);
+	}
+	static void remove(Job<?, ?> job) {
+		synchronized (fragments) {
+			Iterator<Map.Entry<Key, Fragment>> entries = fragments.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Key, Fragment> entry = entries.next();
+				if (entry.getKey().job == job) {
+					bytes -= entry.getValue().getSize();
+					entries.remove();
+				}
+			}
+		}
+	}
+	static void clear() {
+		synchronized (fragments) {
+			fragments.clear();
+			bytes = 0;
+		}
+	}
+	/**
+	 * @return null if the cell has more times in it than were given
+	 */
+	private static String fill(String html, List<String> times) {
+		if (html == null || times == null) {
+			return html;
+		}
+		String filled = html;
+		for (int i = 0; i < times.size(); i++) {
+			filled = filled.replace(getMarker(i), escape(times.get(i)));
+		}
+		if (filled.indexOf(MARKER_START) >= 0) {
+			return null;
+		}
+		return filled;
+	}
+	private static String escape(String s) {
+		if (s == null) {
+			return "";
+		}
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	/**
+	 * What a job's cells are checked against: its {@link JobStatusCache} generation, and its last
+	 * record's number and building flag, the same as {@link JobStatus#isCurrent} - the generation
+	 * is bumped when a build completes, which can be before the record has left the building state.
+	 */
+	static final class Version {
+		private final long generation;
+		private final int lastNumber;
+		private final boolean lastBuilding;
+
+		private Version(long generation, int lastNumber, boolean lastBuilding) {
+			this.generation = generation;
+			this.lastNumber = lastNumber;
+			this.lastBuilding = lastBuilding;
+		}
+		/**
+		 * Reads the generation before the history, as {@link JobStatusCache#get} does.
+		 */
+		@SuppressWarnings("rawtypes")
+		static Version of(Job<?, ?> job) {
+			long generation = JobStatusCache.getGeneration(job);
+			BuildHistory.Record last = job.getBuildHistoryData().getLast();
+			if (last == null) {
+				return new Version(generation, 0, false);
+			}
+			return new Version(generation, last.getNumber(), last.isBuilding());
+		}
+		@Override
+		public int hashCode() {
+			return (int) generation * 31 + lastNumber;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Version)) {
+				return false;
+			}
+			Version that = (Version) obj;
+			return generation == that.generation && lastNumber == that.lastNumber
+				&& lastBuilding == that.lastBuilding;
+		}
+	}
+
+	private static class Fragment {
+		private final String html;
+		private final Version version;
+		private final long stamp;
+
+		Fragment(String html, Version version, long stamp) {
+			this.html = html;
+			this.version = version;
+			this.stamp = stamp;
+		}
+		long getSize() {
+			return ENTRY_OVERHEAD + 2L * html.length();
+		}
+	}
+
+	/**
+	 * Columns and jobs by identity, as in {@link BuildsMemo}.  The base url is part of the key
+	 * because links are relative to the page.
+	 */
+	private static class Key {
+		private final Object column;
+		private final Job<?, ?> job;
+		private final Locale locale;
+		private final String baseUrl;
+
+		Key(Object column, Job<?, ?> job, Locale locale, String baseUrl) {
+			this.column = column;
+			this.job = job;
+			this.locale = locale;
+			this.baseUrl = baseUrl;
+		}
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(column);
+			hash = 31 * hash + System.identityHashCode(job);
+			hash = 31 * hash + (locale == null ? 0 : locale.hashCode());
+			hash = 31 * hash + (baseUrl == null ? 0 : baseUrl.hashCode());
+			return hash;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) obj;
+			return column == that.column && job == that.job
+				&& (locale == null ? that.locale == null : locale.equals(that.locale))
+				&& (baseUrl == null ? that.baseUrl == null : baseUrl.equals(that.baseUrl));
+		}
+	}
+}
@@ -3,9 +3,7 @@ package com.robestone.hudson.compactcolumns;
 import hudson.Extension;
 import hudson.model.Job;
 import hudson.model.Result;
-import hudson.model.Run;
 
-import java.util.List;
 import java.util.Locale;
 
 import org.apache.commons.lang.StringUtils;
@@ -13,12 +11,15 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.AbstractCompactColumnDescriptor;
 import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.TimeAgoType;
+import com.robestone.hudson.compactcolumns.BuildInfo.StatusType;
 
 /**
  * @author jacob robertson
  */
 public class JobNameColorColumn extends AbstractCompactColumn {
 
+	private static final String[] STYLES = createStyles();
+
 	private boolean showColor;
 	private boolean showDescription;
 	private boolean showLastBuild;
@@ -34,48 +35,57 @@ public class JobNameColorColumn extends AbstractCompactColumn {
 
 	@SuppressWarnings("rawtypes")
 	public String getStyle(Job job) {
+		long start = ColumnMetrics.start();
+		try {
+			return computeStyle(job);
+		} finally {
+			ColumnMetrics.JOB_STYLE.stop(start);
+		}
+	}
+	@SuppressWarnings("rawtypes")
+	private String computeStyle(Job job) {
 		Result result = null;
 		if (job != null) {
-			Run run = job.getLastBuild();
-			if (run != null) {
-				result = run.getResult();
+			// the job's last build as the build history has it, so no build needs loading
+			BuildSnapshot last = JobStatusCache.get(job).getLast();
+			if (last != null) {
+				result = last.getResult();
 			}
 		}
-		String color;
-		String underline;
-		if (result == null) {
-			color = BuildInfo.OTHER_COLOR;
-			underline = AbstractStatusesColumn.OTHER_UNDERLINE_STYLE;
-		} else if (Result.ABORTED.equals(result)) {
-			color = BuildInfo.OTHER_COLOR;
-			underline = AbstractStatusesColumn.OTHER_UNDERLINE_STYLE;
-		} else if (Result.FAILURE.equals(result)) {
-			color = BuildInfo.FAILED_COLOR;
-			underline = AbstractStatusesColumn.FAILED_UNDERLINE_STYLE;
-		} else if (Result.NOT_BUILT.equals(result)) {
-			color = BuildInfo.OTHER_COLOR;
-			underline = AbstractStatusesColumn.OTHER_UNDERLINE_STYLE;
-		} else if (Result.SUCCESS.equals(result)) {
-			color = BuildInfo.getStableColorString();
-			underline = AbstractStatusesColumn.STABLE_UNDERLINE_STYLE;
-		} else if (Result.UNSTABLE.equals(result)) {
-			color = BuildInfo.UNSTABLE_COLOR;
-			underline = AbstractStatusesColumn.UNSTABLE_UNDERLINE_STYLE;
-		} else {
-			color = BuildInfo.OTHER_COLOR;
-			underline = AbstractStatusesColumn.OTHER_UNDERLINE_STYLE;
-		}
-		String style = "";
-		if (showColor) {
-			style += ("color: " + color + ";");
-		}
-		if (isShowColorblindUnderlineHint()) {
-			style += ("text-decoration: none; border-bottom: " + underline + ";");
+		return STYLES[StatusType.of(result).ordinal() * 4 + (showColor ? 2 : 0) + (isShowColorblindUnderlineHint() ? 1 : 0)];
+	}
+	/**
+	 * Every style a job name can have, by kind of status and then by whether the color and
+	 * the underline hint are shown, so that rows don't each put their own together.
+	 */
+	private static String[] createStyles() {
+		StatusType[] types = StatusType.values();
+		String[] styles = new String[types.length * 4];
+		for (StatusType type : types) {
+			for (int flags = 0; flags < 4; flags++) {
+				String style = "";
+				if ((flags & 2) != 0) {
+					style += ("color: " + type.getColor() + ";");
+				}
+				if ((flags & 1) != 0) {
+					style += ("text-decoration: none; border-bottom: " + type.getUnderlineStyle() + ";");
+				}
+				styles[type.ordinal() * 4 + flags] = style;
+			}
 		}
-		return style;
+		return styles;
 	}
 	@SuppressWarnings("rawtypes")
 	public String getToolTip(Job job, Locale locale) {
+		long start = ColumnMetrics.start();
+		try {
+			return computeToolTip(job, locale);
+		} finally {
+			ColumnMetrics.JOB_TOOL_TIP.stop(start);
+		}
+	}
+	@SuppressWarnings("rawtypes")
+	private String computeToolTip(Job job, Locale locale) {
 		StringBuilder tip = new StringBuilder();
 		if (showDescription) {
 			String desc = job.getDescription();
@@ -84,10 +94,8 @@ public class JobNameColorColumn extends AbstractCompactColumn {
 			}
 		}
 		if (showLastBuild) {
-			// TODO could me much more efficient if we have a flag to get just the first build (will help with other TODO)
-			List<BuildInfo> builds = AbstractStatusesColumn.getBuilds(job, locale, false, false, true, isShowColorblindUnderlineHint(), TimeAgoType.DIFF, 0);
-			if (!builds.isEmpty()) {
-				BuildInfo build = builds.get(0);
+			BuildInfo build = AbstractStatusesColumn.getLatestBuild(job, locale, isShowColorblindUnderlineHint(), TimeAgoType.DIFF);
+			if (build != null) {
 				String desc = AbstractStatusesColumn.getBuildDescriptionToolTip(build, locale);
 				if (!StringUtils.isEmpty(desc)) {
 					if (tip.length() > 0) {
@@ -99,6 +107,64 @@ public class JobNameColorColumn extends AbstractCompactColumn {
 		}
 		return tip.toString();
 	}
+	@Override
+	long getAgingPeriod() {
+		if (showLastBuild) {
+			return AbstractStatusesColumn.ONE_MINUTE_MS;
+		}
+		return 0;
+	}
+	/**
+	 * The inside of the job's cell from the {@link FragmentCache}.
+	 * @param baseUrl the url the cell's links start with
+	 * @return null when the cache is off, or has no cell for the job that is still good
+	 */
+	@SuppressWarnings("rawtypes")
+	public String getCachedCell(Job job, Locale locale, String baseUrl) {
+		if (!FragmentCache.isEnabled()) {
+			return null;
+		}
+		return FragmentCache.get(this, job, locale, baseUrl, getCellStamp(), null);
+	}
+	/**
+	 * Keeps the inside of the job's cell in the {@link FragmentCache}.
+	 * @param version the job's version from before the cell was rendered
+	 * @param stamp the {@link #getCellStamp()} from before the cell was rendered
+	 * @return the cell
+	 */
+	@SuppressWarnings("rawtypes")
+	public String putCachedCell(Job job, Locale locale, String baseUrl, FragmentCache.Version version, long stamp,
+			String html) {
+		return FragmentCache.put(this, job, locale, baseUrl, version, stamp, html, null);
+	}
+	/**
+	 * The last build's time ago is part of a tool-tip drawn with the page, so such a
+	 * cell is only good for the minute it was rendered in.
+	 */
+	public long getCellStamp() {
+		if (showLastBuild && !isLazyToolTips()) {
+			return System.currentTimeMillis() / AbstractStatusesColumn.ONE_MINUTE_MS;
+		}
+		return 0;
+	}
+	public boolean isToolTipShown() {
+		return showDescription || showLastBuild;
+	}
+	/**
+	 * Whether the tool-tip is left out of the page, and fetched from {@link #getToolTipUrl} when
+	 * the mouse first goes over the job name.
+	 */
+	public boolean isLazyToolTips() {
+		return CompactColumnsPlugin.isLazyToolTipsEnabled();
+	}
+	/**
+	 * @return the url of the tool-tip, relative to the root url
+	 */
+	@SuppressWarnings("rawtypes")
+	public String getToolTipUrl(Job job) {
+		return CompactColumnsPlugin.URL + "jobToolTip?job=" + CompactColumnsPlugin.encode(job.getFullName())
+			+ "&description=" + showDescription + "&lastBuild=" + showLastBuild;
+	}
     public boolean isShowColor() {
 		return showColor;
 	}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+
+/**
+ * Everything the status columns need to know about one job's history, taken in one go
+ * by {@link StatusResolver}.
+ * Only the locale and time dependent strings are left to be worked out at render time.
+ *
+ * @author jacob robertson
+ */
+final class JobStatus {
+
+	private final long generation;
+	private final BuildSnapshot last;
+	private final BuildSnapshot lastCompleted;
+	private final BuildSnapshot lastFailed;
+	private final BuildSnapshot lastUnstable;
+	private final BuildSnapshot lastStable;
+	private final BuildSnapshot lastAborted;
+	/**
+	 * How many records back the aborted build was found.
+	 */
+	private final int abortedAt;
+	/**
+	 * How many records were walked, and whether that was all of them - the aborted build
+	 * is only known within that range, past it we ask the {@link AbortedIndex}.
+	 */
+	private final int examined;
+	private final boolean exhausted;
+	private final int latestNumber;
+
+	JobStatus(long generation, BuildSnapshot last, BuildSnapshot lastCompleted,
+			BuildSnapshot lastFailed, BuildSnapshot lastUnstable, BuildSnapshot lastStable,
+			BuildSnapshot lastAborted, int abortedAt,
+			int examined, boolean exhausted) {
+		this.generation = generation;
+		this.last = last;
+		this.lastCompleted = lastCompleted;
+		this.lastFailed = lastFailed;
+		this.lastUnstable = lastUnstable;
+		this.lastStable = lastStable;
+		this.lastAborted = lastAborted;
+		this.abortedAt = abortedAt;
+		this.examined = examined;
+		this.exhausted = exhausted;
+		BuildSnapshot latest = getLatest();
+		this.latestNumber = (latest == null ? 0 : latest.getNumber());
+	}
+	/**
+	 * Cheap check that nothing was started or finished since this snapshot was taken,
+	 * in case we missed (or have not yet received) the listener event.
+	 */
+	@SuppressWarnings("rawtypes")
+	boolean isCurrent(BuildHistory.Record record) {
+		if (record == null || last == null) {
+			return record == null && last == null;
+		}
+		return record.getNumber() == last.getNumber() && record.isBuilding() == last.isBuilding();
+	}
+	long getGeneration() {
+		return generation;
+	}
+	BuildSnapshot getLast() {
+		return last;
+	}
+	BuildSnapshot getLastCompleted() {
+		return lastCompleted;
+	}
+	/**
+	 * The build we consider "the latest" - the last completed one, or the last one at all
+	 * if nothing has completed yet.
+	 */
+	BuildSnapshot getLatest() {
+		if (lastCompleted != null) {
+			return lastCompleted;
+		}
+		return last;
+	}
+	/**
+	 * Whether the build is {@link #getLatest()}, worked out once per snapshot rather than once per status.
+	 */
+	boolean isLatest(BuildSnapshot build) {
+		return build.getNumber() == latestNumber;
+	}
+	BuildSnapshot getLastFailed() {
+		return lastFailed;
+	}
+	BuildSnapshot getLastUnstable() {
+		return lastUnstable;
+	}
+	BuildSnapshot getLastStable() {
+		return lastStable;
+	}
+	/**
+	 * @param maxDepth how far back the column looks, or 0 for no limit
+	 * @return whether the walk went far enough to answer for the last aborted build
+	 */
+	boolean isAbortedKnown(int maxDepth) {
+		return lastAborted != null || exhausted || (maxDepth > 0 && examined >= maxDepth);
+	}
+	/**
+	 * Only meaningful when {@link #isAbortedKnown(int)}.
+	 */
+	BuildSnapshot getLastAborted(int maxDepth) {
+		if (lastAborted == null || (maxDepth > 0 && abortedAt > maxDepth)) {
+			return null;
+		}
+		return lastAborted;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.BuildHistory;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plugin-wide cache of {@link JobStatus} snapshots. Snapshots are taken lazily the first time
+ * a job is rendered, and thrown away when one of its builds starts, completes or is deleted.
+ * Also holds each job's {@link AbortedIndex}, for columns that look further back for an aborted
+ * build than the snapshot did, which is updated rather than thrown away.
+ * <p>
+ * Entries are kept by the job's full name, and only used for the very {@link Job} they were made
+ * for, since Hudson can load a job again without deleting it.  Everything is thrown away when
+ * the items are loaded again, so the old jobs aren't held on to.
+ *
+ * @author jacob robertson
+ */
+public final class JobStatusCache {
+
+	private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/**
+	 * Bumped when the whole cache is thrown away, since the generations start again from 0.
+	 */
+	private static final AtomicLong epoch = new AtomicLong();
+
+	private JobStatusCache() {
+	}
+
+	@SuppressWarnings("rawtypes")
+	static JobStatus get(Job<?, ?> job) {
+		Entry entry = getEntry(job);
+		// read the generation before the history, so a change that happens while
+		// we are taking the snapshot leaves the snapshot marked as stale
+		long generation = entry.generation.get();
+		BuildHistory history = job.getBuildHistoryData();
+		BuildHistory.Record last = history.getLast();
+		JobStatus status = entry.status;
+		if (status == null || status.getGeneration() != generation || !status.isCurrent(last)) {
+			ColumnMetrics.STATUS_CACHE_MISSES.increment();
+			status = StatusResolver.resolve(history, last, generation, CompactColumnsPlugin.getStatusScanDepthSetting());
+			entry.status = status;
+		} else {
+			ColumnMetrics.STATUS_CACHE_HITS.increment();
+		}
+		return status;
+	}
+	/**
+	 * @param maxDepth how far back to look when the index has to be rebuilt, or 0 for no limit
+	 */
+	static BuildSnapshot getLastAborted(Job<?, ?> job, JobStatus status, int maxDepth) {
+		if (status.isAbortedKnown(maxDepth)) {
+			return status.getLastAborted(maxDepth);
+		}
+		Entry entry = getEntry(job);
+		AbortedIndex index = entry.aborted;
+		if (index == null || !index.covers(status.getLastCompleted(), maxDepth)) {
+			index = AbortedIndex.scan(job.getBuildHistoryData(), maxDepth);
+			ColumnMetrics.HISTORY_TRAVERSALS.increment();
+			ColumnMetrics.RECORDS_SCANNED.add(index.getExamined());
+			entry.aborted = index;
+		}
+		return index.getFound(maxDepth);
+	}
+	/**
+	 * The job's latest completed builds.  The ring is filled from the history the first time,
+	 * and again whenever it turns out to have missed a build.  The check and the scan are made
+	 * under the same lock {@link #onCompleted} takes, so neither undoes the other.
+	 * @param status the job's status, to tell whether the ring is up to date
+	 */
+	static BuildRing getRing(Job<?, ?> job, JobStatus status) {
+		Entry entry = getEntry(job);
+		BuildSnapshot lastCompleted = status.getLastCompleted();
+		synchronized (entry) {
+			BuildRing ring = entry.ring;
+			if (ring != null && ring.isCurrent(lastCompleted)) {
+				return ring;
+			}
+			ring = BuildRing.scan(job.getBuildHistoryData());
+			// a build that has completed but not yet left the building state is missed by
+			// the scan, so the ring is only kept once it has caught up with the status
+			if (ring.isCurrent(lastCompleted)) {
+				entry.ring = ring;
+			}
+			return ring;
+		}
+	}
+	static void invalidate(Job<?, ?> job) {
+		Entry entry = find(job);
+		if (entry != null) {
+			entry.generation.incrementAndGet();
+		}
+	}
+	static void remove(Job<?, ?> job) {
+		Entry entry = find(job);
+		if (entry != null) {
+			entries.remove(job.getFullName(), entry);
+		}
+		FragmentCache.remove(job);
+	}
+	/**
+	 * Keeps the job's entry under its new name, marked as changed.
+	 */
+	static void renamed(Job<?, ?> job) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next().getValue();
+			if (entry.job == job) {
+				it.remove();
+				entry.generation.incrementAndGet();
+				entries.put(job.getFullName(), entry);
+				return;
+			}
+		}
+	}
+	static void clear() {
+		epoch.incrementAndGet();
+		entries.clear();
+		// generations start again from 0, so cells kept against them can't be trusted
+		FragmentCache.clear();
+	}
+	/**
+	 * Goes up each time one of the job's builds starts, completes or is deleted, or the job
+	 * is renamed or saved, without working anything out.
+	 */
+	static long getGeneration(Job<?, ?> job) {
+		return getEntry(job).generation.get();
+	}
+	static long getEpoch() {
+		return epoch.get();
+	}
+	private static Entry getEntry(Job<?, ?> job) {
+		String name = job.getFullName();
+		while (true) {
+			Entry entry = entries.get(name);
+			if (entry != null && entry.job == job) {
+				return entry;
+			}
+			// none yet, or one left by a job of the same name that has since been replaced
+			Entry created = new Entry(job);
+			if (entry == null ? entries.putIfAbsent(name, created) == null : entries.replace(name, entry, created)) {
+				return created;
+			}
+		}
+	}
+	/**
+	 * @return the job's entry, or null if there is none for this very job
+	 */
+	private static Entry find(Job<?, ?> job) {
+		Entry entry = entries.get(job.getFullName());
+		return entry != null && entry.job == job ? entry : null;
+	}
+
+	private static void onCompleted(Run<?, ?> run) {
+		Entry entry = find(run.getParent());
+		if (entry == null) {
+			return;
+		}
+		entry.generation.incrementAndGet();
+		synchronized (entry) {
+			AbortedIndex index = entry.aborted;
+			if (index != null) {
+				// the run has not necessarily left the building state yet, but it has its result
+				BuildSnapshot build = new BuildSnapshot(run.getNumber(), run.getTimeInMillis(), run.getDuration(),
+						run.getResult(), false);
+				entry.aborted = index.onCompleted(build);
+			}
+			BuildRing ring = entry.ring;
+			if (ring != null && !ring.onCompleted(run.getNumber(), run.getTimeInMillis(), run.getResult())) {
+				entry.ring = null;
+			}
+		}
+	}
+	private static void onDeleted(Run<?, ?> run) {
+		Entry entry = find(run.getParent());
+		if (entry == null) {
+			return;
+		}
+		entry.generation.incrementAndGet();
+		synchronized (entry) {
+			AbortedIndex index = entry.aborted;
+			if (index != null) {
+				entry.aborted = index.onDeleted(run.getNumber());
+			}
+			// the build may be anywhere in the ring
+			entry.ring = null;
+		}
+	}
+
+	private static class Entry {
+		private final Job<?, ?> job;
+		private final AtomicLong generation = new AtomicLong();
+		private volatile JobStatus status;
+		private volatile AbortedIndex aborted;
+		private volatile BuildRing ring;
+
+		Entry(Job<?, ?> job) {
+			this.job = job;
+		}
+	}
+
+	@Extension
+	@SuppressWarnings("rawtypes")
+	public static class RunListenerImpl extends RunListener<Run> {
+		public RunListenerImpl() {
+			super(Run.class);
+		}
+		@Override
+		public void onStarted(Run r, TaskListener listener) {
+			invalidate(r.getParent());
+			StatusUpdates.changed(r.getParent());
+		}
+		@Override
+		public void onCompleted(Run r, TaskListener listener) {
+			JobStatusCache.onCompleted(r);
+			StatusUpdates.changed(r.getParent());
+		}
+		@Override
+		public void onDeleted(Run r) {
+			JobStatusCache.onDeleted(r);
+			StatusUpdates.changed(r.getParent());
+		}
+	}
+
+	@Extension
+	public static class ItemListenerImpl extends ItemListener {
+		/**
+		 * After a start-up or a reload from disk every job may be a new object.
+		 */
+		@Override
+		public void onLoaded() {
+			clear();
+		}
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof Job) {
+				renamed((Job<?, ?>) item);
+			}
+		}
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof Job) {
+				remove((Job<?, ?>) item);
+			}
+		}
+	}
+
+	/**
+	 * A job's settings, such as its description or display name, show up in the cells kept
+	 * by the {@link FragmentCache}.
+	 */
+	@Extension
+	public static class SaveableListenerImpl extends SaveableListener {
+		@Override
+		public void onChange(Saveable o, XmlFile file) {
+			if (o instanceof Job) {
+				invalidate((Job<?, ?>) o);
+			}
+		}
+	}
+}
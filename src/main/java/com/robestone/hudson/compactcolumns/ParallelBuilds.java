@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Job;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Works out the statuses of many jobs at once on a fork/join pool, for
+ * {@link AbstractStatusesColumn#getAllBuilds}.  Nothing here may depend on the current request,
+ * which is why the locale is passed all the way down.
+ *
+ * @author jacob robertson
+ */
+final class ParallelBuilds extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Below this many jobs a task does the work itself rather than splitting.
+	 */
+	private static final int THRESHOLD = 16;
+
+	private final AbstractStatusesColumn column;
+	private final List<Job<?, ?>> jobs;
+	private final Locale locale;
+	private final List<BuildInfo>[] results;
+	private final int from;
+	private final int to;
+
+	private ParallelBuilds(AbstractStatusesColumn column, List<Job<?, ?>> jobs, Locale locale,
+			List<BuildInfo>[] results, int from, int to) {
+		this.column = column;
+		this.jobs = jobs;
+		this.locale = locale;
+		this.results = results;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * @return the statuses of each job, in the same order as the jobs, or null if the pool
+	 * has been shut down because the parallelism was changed since the caller got hold of it
+	 */
+	@SuppressWarnings("unchecked")
+	static List<BuildInfo>[] compute(AbstractStatusesColumn column, List<Job<?, ?>> jobs, Locale locale, ForkJoinPool pool) {
+		List<BuildInfo>[] results = new List[jobs.size()];
+		try {
+			pool.invoke(new ParallelBuilds(column, jobs, locale, results, 0, jobs.size()));
+		} catch (RejectedExecutionException e) {
+			return null;
+		}
+		return results;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from <= THRESHOLD) {
+			for (int i = from; i < to; i++) {
+				results[i] = column.computeBuilds(jobs.get(i), locale);
+			}
+		} else {
+			int middle = (from + to) >>> 1;
+			invokeAll(new ParallelBuilds(column, jobs, locale, results, from, middle),
+					new ParallelBuilds(column, jobs, locale, results, middle, to));
+		}
+	}
+}
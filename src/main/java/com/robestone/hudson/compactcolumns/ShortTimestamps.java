@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.json.JSONArray;
+
+/**
+ * The "days/hours ago" strings.  There are only a few hundred different ones per locale,
+ * so each is formatted by hudson.Messages the first time it comes up, and after that it's
+ * an array lookup - no BigDecimal, no boxing and no MessageFormat.
+ *
+ * @author jacob robertson
+ */
+final class ShortTimestamps {
+
+	private static final int YEAR = 0;
+	private static final int MONTH = 1;
+	private static final int DAY = 2;
+	private static final int HOUR = 3;
+	private static final int MINUTE = 4;
+	private static final int SECOND = 5;
+	/**
+	 * Anything under a second, which is always "0 sec".
+	 */
+	private static final int NONE = 6;
+
+	private static final long[] UNIT_MS = {
+		AbstractStatusesColumn.ONE_YEAR_MS, AbstractStatusesColumn.ONE_MONTH_MS, AbstractStatusesColumn.ONE_DAY_MS,
+		AbstractStatusesColumn.ONE_HOUR_MS, AbstractStatusesColumn.ONE_MINUTE_MS, AbstractStatusesColumn.ONE_SECOND_MS};
+
+	/**
+	 * 0.0 to 9.9 by tenths, then 10 to 109 - more than any unit but years will ever need.
+	 */
+	private static final int BUCKETS = 200;
+	/**
+	 * Request locales come from the browser, so don't let them fill up the memory.
+	 */
+	private static final int MAX_LOCALES = 64;
+
+	private static final ConcurrentMap<Locale, String[][]> tables = new ConcurrentHashMap<Locale, String[][]>();
+	private static final BoundedCache<Locale, String> json = new BoundedCache<Locale, String>(MAX_LOCALES);
+
+	private ShortTimestamps() {
+	}
+
+	/**
+	 * @see AbstractStatusesColumn#getShortTimestamp(float)
+	 */
+	static String get(float time, Locale locale) {
+		int unit = getUnit(time);
+		float number = 0;
+		int bucket = 0;
+		if (unit != NONE) {
+			float value = time / UNIT_MS[unit];
+			long tenths = AbstractStatusesColumn.getRoundedTenths(value);
+			number = (float) (tenths / 10.0);
+			bucket = toBucket(tenths);
+		}
+		String[][] table = getTable(locale);
+		if (table == null || bucket < 0) {
+			return format(unit, number, locale);
+		}
+		String[] strings = table[unit];
+		if (strings == null) {
+			strings = new String[BUCKETS];
+			table[unit] = strings;
+		}
+		String s = strings[bucket];
+		if (s == null) {
+			s = format(unit, number, locale);
+			strings[bucket] = s;
+		}
+		return s;
+	}
+	/**
+	 * The whole table for the locale, for client-times.js to format times ago with the same
+	 * strings and rounding we use here.  Indexed by unit (years first, down to seconds, and last
+	 * the one string for under a second), then by bucket.
+	 */
+	static String getAllStringsJSON(Locale locale) {
+		String s = json.get(locale);
+		if (s == null) {
+			JSONArray units = new JSONArray();
+			for (int unit = YEAR; unit < NONE; unit++) {
+				JSONArray strings = new JSONArray();
+				for (int bucket = 0; bucket < BUCKETS; bucket++) {
+					strings.add(format(unit, toNumber(bucket), locale));
+				}
+				units.add(strings);
+			}
+			JSONArray none = new JSONArray();
+			none.add(format(NONE, 0, locale));
+			units.add(none);
+			s = units.toString();
+			json.put(locale, s);
+		}
+		return s;
+	}
+	private static int getUnit(float time) {
+		for (int i = 0; i < UNIT_MS.length; i++) {
+			if (time >= UNIT_MS[i]) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+	/**
+	 * @return the index into the table, or -1 if the number is too big (or small) to be cached
+	 */
+	private static int toBucket(long tenths) {
+		if (tenths < 0) {
+			return -1;
+		} else if (tenths < 100) {
+			return (int) tenths;
+		}
+		long bucket = 90 + tenths / 10;
+		if (bucket >= BUCKETS) {
+			return -1;
+		}
+		return (int) bucket;
+	}
+	/**
+	 * The reverse of {@link #toBucket(long)}.
+	 */
+	private static float toNumber(int bucket) {
+		if (bucket < 100) {
+			return (float) (bucket / 10.0);
+		}
+		return bucket - 90;
+	}
+	private static String[][] getTable(Locale locale) {
+		String[][] table = tables.get(locale);
+		if (table == null) {
+			if (tables.size() >= MAX_LOCALES) {
+				return null;
+			}
+			table = new String[NONE + 1][];
+			String[][] existing = tables.putIfAbsent(locale, table);
+			if (existing != null) {
+				table = existing;
+			}
+		}
+		return table;
+	}
+	private static String format(int unit, float number, Locale locale) {
+		switch (unit) {
+			case YEAR:
+				return hudson.Messages._Util_year(number).toString(locale);
+			case MONTH:
+				return hudson.Messages._Util_month(number).toString(locale);
+			case DAY:
+				return hudson.Messages._Util_day(number).toString(locale);
+			case HOUR:
+				return hudson.Messages._Util_hour(number).toString(locale);
+			case MINUTE:
+				return hudson.Messages._Util_minute(number).toString(locale);
+			case SECOND:
+				return hudson.Messages._Util_second(number).toString(locale);
+			default:
+				return hudson.Messages._Util_second(0).toString(locale);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ListView;
+import hudson.model.Result;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.views.ListViewColumn;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * The statuses of a view's jobs as plain data, for wallboards that would otherwise scrape the page.
+ * Each response carries an ETag made from the generations {@link JobStatusCache} keeps for the
+ * jobs, so a poller that already has the current statuses gets a 304 before anything is worked out.
+ *
+ * @author jacob robertson
+ */
+final class StatusFeed {
+
+	private final View view;
+	private final AbstractStatusesColumn column;
+	private final List<Job<?, ?>> jobs;
+
+	StatusFeed(View view) {
+		this.view = view;
+		this.column = findColumn(view);
+		this.jobs = new ArrayList<Job<?, ?>>();
+		for (TopLevelItem item : view.getItems()) {
+			if (item instanceof Job && item.hasPermission(Item.READ)) {
+				jobs.add((Job<?, ?>) item);
+			}
+		}
+	}
+	/**
+	 * The view's own statuses column if it has one, so the feed shows what the page shows.
+	 */
+	private static AbstractStatusesColumn findColumn(View view) {
+		if (view instanceof ListView) {
+			for (ListViewColumn column : ((ListView) view).getColumns()) {
+				if (column instanceof AbstractStatusesColumn) {
+					return (AbstractStatusesColumn) column;
+				}
+			}
+		}
+		return new AllStatusesColumn(null, false, null, 0, 0);
+	}
+
+	/**
+	 * Changes whenever a build of one of the jobs starts, completes or is deleted, or the jobs
+	 * or the user change.  Columns that hide old builds also change it every hour.
+	 */
+	String getETag(String format) {
+		StatusFingerprint fingerprint = new StatusFingerprint();
+		fingerprint.add(view.getViewName());
+		fingerprint.add(format);
+		fingerprint.add(column.getClass().getName());
+		fingerprint.add(column.isOnlyShowLastStatus() ? 1 : 0);
+		fingerprint.add(column.getAbortedScanDepth());
+		if (column.getHideDays() > 0) {
+			fingerprint.add(column.getHideDays());
+			fingerprint.addTimeBucket(AbstractStatusesColumn.ONE_HOUR_MS);
+		}
+		for (Job<?, ?> job : jobs) {
+			fingerprint.add(job);
+		}
+		return fingerprint.toETag();
+	}
+
+	/**
+	 * Sends the feed, or just a 304 when the poller's If-None-Match is still the current ETag.
+	 */
+	void write(StaplerRequest req, StaplerResponse rsp, boolean csv) throws IOException {
+		String etag = getETag(csv ? "csv" : "json");
+		rsp.setHeader("ETag", etag);
+		rsp.setHeader("Cache-Control", "private, no-cache");
+		if (etag.equals(req.getHeader("If-None-Match"))) {
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		if (csv) {
+			rsp.setContentType("text/csv;charset=UTF-8");
+			writeCSV(rsp.getWriter(), req.getLocale());
+		} else {
+			rsp.setContentType("application/json;charset=UTF-8");
+			writeJSON(rsp.getWriter(), req.getLocale());
+		}
+	}
+	void writeJSON(PrintWriter out, Locale locale) {
+		Map<Job<?, ?>, List<BuildInfo>> all = column.getAllBuilds(jobs, locale);
+		JSONArray jobsJson = new JSONArray();
+		for (Map.Entry<Job<?, ?>, List<BuildInfo>> entry : all.entrySet()) {
+			JSONArray buildsJson = new JSONArray();
+			for (BuildInfo build : entry.getValue()) {
+				BuildSnapshot snapshot = build.getSnapshot();
+				JSONObject buildJson = new JSONObject();
+				buildJson.put("number", snapshot.getNumber());
+				buildJson.put("result", getResultName(snapshot));
+				buildJson.put("timestamp", snapshot.getTimeInMillis());
+				buildJson.put("duration", snapshot.getDuration());
+				buildJson.put("latest", build.isLatestBuild());
+				buildsJson.add(buildJson);
+			}
+			JSONObject jobJson = new JSONObject();
+			jobJson.put("name", entry.getKey().getFullName());
+			jobJson.put("url", entry.getKey().getUrl());
+			jobJson.put("builds", buildsJson);
+			jobsJson.add(jobJson);
+		}
+		JSONObject json = new JSONObject();
+		json.put("view", view.getViewName());
+		json.put("jobs", jobsJson);
+		out.print(json.toString());
+	}
+	/**
+	 * One line per status - job, number, result, timestamp, duration, latest.
+	 */
+	void writeCSV(PrintWriter out, Locale locale) {
+		Map<Job<?, ?>, List<BuildInfo>> all = column.getAllBuilds(jobs, locale);
+		out.print("job,number,result,timestamp,duration,latest\r\n");
+		for (Map.Entry<Job<?, ?>, List<BuildInfo>> entry : all.entrySet()) {
+			String name = toCSV(entry.getKey().getFullName());
+			for (BuildInfo build : entry.getValue()) {
+				BuildSnapshot snapshot = build.getSnapshot();
+				out.print(name);
+				out.print(',');
+				out.print(snapshot.getNumber());
+				out.print(',');
+				out.print(getResultName(snapshot));
+				out.print(',');
+				out.print(snapshot.getTimeInMillis());
+				out.print(',');
+				out.print(snapshot.getDuration());
+				out.print(',');
+				out.print(build.isLatestBuild());
+				out.print("\r\n");
+			}
+		}
+	}
+	private static String getResultName(BuildSnapshot snapshot) {
+		Result result = snapshot.getResult();
+		if (result == null) {
+			return "BUILDING";
+		}
+		return result.toString();
+	}
+	private static String toCSV(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Hudson;
+import hudson.model.Job;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds up a digest of everything a response depends on, to use as its ETag.  The jobs go in by
+ * their {@link JobStatusCache} generations, so nothing has to be worked out to tell whether
+ * anything changed.  A real digest rather than a hash code, since a collision would mean
+ * a browser keeping a page that has changed.
+ *
+ * @author jacob robertson
+ */
+final class StatusFingerprint {
+
+	private final MessageDigest digest;
+
+	StatusFingerprint() {
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM has SHA-1
+			throw new IllegalStateException(e);
+		}
+		add(JobStatusCache.getEpoch());
+		add(Hudson.getAuthentication().getName());
+	}
+	StatusFingerprint add(long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			digest.update((byte) (value >>> shift));
+		}
+		return this;
+	}
+	/**
+	 * Each string goes in after its length, so neighbouring strings can't run into each other.
+	 */
+	StatusFingerprint add(String value) {
+		if (value == null) {
+			return add(-1);
+		}
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// every JVM has UTF-8
+			throw new IllegalStateException(e);
+		}
+		add(bytes.length);
+		digest.update(bytes);
+		return this;
+	}
+	/**
+	 * The generation alone isn't enough - it starts again from 0 when a job is deleted and made
+	 * again under the same name, and a change can land before its event does - so the job's last
+	 * record goes in as well, which the history has to hand.
+	 */
+	@SuppressWarnings("rawtypes")
+	StatusFingerprint add(Job<?, ?> job) {
+		add(job.getFullName());
+		add(JobStatusCache.getGeneration(job));
+		BuildHistory.Record last = job.getBuildHistoryData().getLast();
+		add(last == null ? 0 : last.getNumber());
+		return add(last != null && last.isBuilding() ? 1 : 0);
+	}
+	/**
+	 * Makes the fingerprint change every period, for pages whose text ages.
+	 * @param period in milliseconds, or 0 when nothing ages
+	 */
+	StatusFingerprint addTimeBucket(long period) {
+		if (period <= 0) {
+			return this;
+		}
+		add(period);
+		return add(System.currentTimeMillis() / period);
+	}
+	String toETag() {
+		byte[] bytes = digest.digest();
+		StringBuilder etag = new StringBuilder(bytes.length * 2 + 2);
+		etag.append('"');
+		for (byte b : bytes) {
+			etag.append(Character.forDigit((b >> 4) & 0xf, 16));
+			etag.append(Character.forDigit(b & 0xf, 16));
+		}
+		return etag.append('"').toString();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.BuildHistory;
+import hudson.model.Result;
+
+/**
+ * Works out a job's {@link JobStatus} with one walk back through its history, filling in the
+ * statuses the columns show at once and stopping as soon as the failed, unstable and stable
+ * builds are found or the walk is deep enough.
+ * Those can still be older than that, so for them we fall back on the history's own lookups.
+ * An aborted build met on the way is kept, but the walk doesn't go on looking for one -
+ * the columns only want it when there is nothing else to show, and then the walk has gone
+ * as deep as it can anyway, or the {@link AbortedIndex} takes over.
+ *
+ * @author jacob robertson
+ */
+@SuppressWarnings("rawtypes")
+final class StatusResolver {
+
+	private BuildHistory.Record lastCompleted;
+	private BuildHistory.Record lastFailed;
+	private BuildHistory.Record lastUnstable;
+	private BuildHistory.Record lastStable;
+	private BuildHistory.Record lastAborted;
+	private int abortedAt;
+	private int examined;
+	private boolean exhausted;
+
+	private StatusResolver() {
+	}
+
+	/**
+	 * @param last the history's last record, which the caller has already fetched
+	 * @param maxDepth how many records to look at, or 0 for no limit
+	 */
+	static JobStatus resolve(BuildHistory history, BuildHistory.Record last, long generation, int maxDepth) {
+		StatusResolver resolver = new StatusResolver();
+		resolver.walk(last, maxDepth);
+		return resolver.toStatus(history, last, generation);
+	}
+	private void walk(BuildHistory.Record record, int maxDepth) {
+		while (record != null) {
+			if (isComplete() || (maxDepth > 0 && examined >= maxDepth)) {
+				break;
+			}
+			examined++;
+			accept(record);
+			record = record.getPrevious();
+		}
+		exhausted = (record == null);
+		ColumnMetrics.HISTORY_TRAVERSALS.increment();
+		ColumnMetrics.RECORDS_SCANNED.add(examined);
+	}
+	private void accept(BuildHistory.Record record) {
+		if (record.isBuilding()) {
+			return;
+		}
+		if (lastCompleted == null) {
+			lastCompleted = record;
+		}
+		Result result = record.getResult();
+		if (result == Result.FAILURE) {
+			if (lastFailed == null) {
+				lastFailed = record;
+			}
+		} else if (result == Result.UNSTABLE) {
+			if (lastUnstable == null) {
+				lastUnstable = record;
+			}
+		} else if (result == Result.SUCCESS) {
+			if (lastStable == null) {
+				lastStable = record;
+			}
+		} else if (result == Result.ABORTED) {
+			if (lastAborted == null) {
+				lastAborted = record;
+				abortedAt = examined;
+			}
+		}
+	}
+	private boolean isComplete() {
+		return lastFailed != null && lastUnstable != null && lastStable != null;
+	}
+	private JobStatus toStatus(BuildHistory history, BuildHistory.Record last, long generation) {
+		if (!exhausted) {
+			if (lastCompleted == null) {
+				lastCompleted = history.getLastCompleted();
+			}
+			if (lastFailed == null) {
+				lastFailed = history.getLastFailed();
+			}
+			if (lastUnstable == null) {
+				lastUnstable = history.getLastUnstable();
+			}
+			if (lastStable == null) {
+				lastStable = history.getLastStable();
+			}
+		}
+		return new JobStatus(generation,
+				BuildSnapshot.of(last),
+				BuildSnapshot.of(lastCompleted),
+				BuildSnapshot.of(lastFailed),
+				BuildSnapshot.of(lastUnstable),
+				BuildSnapshot.of(lastStable),
+				BuildSnapshot.of(lastAborted), abortedAt,
+				examined, exhausted);
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.Extension;
+import hudson.model.Job;
+
+import java.util.Locale;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.AbstractCompactColumnDescriptor;
+import com.robestone.hudson.compactcolumns.BuildInfo.StatusType;
+
+/**
+ * Shows a job's last few build results as a strip of small bars, oldest on the left,
+ * in the same colors (and with the same colorblind hints) as the statuses columns.
+ * The builds come from the job's {@link BuildRing}, not from walking the history.
+ *
+ * @author jacob robertson
+ */
+public class StatusSparklineColumn extends AbstractCompactColumn {
+
+	static final int DEFAULT_BUILD_COUNT = 10;
+
+	/**
+	 * Bar styles by status type, without and then with the underline hint.
+	 */
+	private static final String[] STYLES = createStyles();
+
+	private int buildCount;
+
+	@DataBoundConstructor
+	public StatusSparklineColumn(String colorblindHint, int buildCount) {
+		super(colorblindHint);
+		this.buildCount = buildCount;
+	}
+	/**
+	 * How many builds to show, at most {@link BuildRing#CAPACITY}.
+	 */
+	public int getBuildCount() {
+		if (buildCount <= 0) {
+			return DEFAULT_BUILD_COUNT;
+		}
+		return Math.min(buildCount, BuildRing.CAPACITY);
+	}
+	/**
+	 * The bars for the job, each linked to its build.
+	 * @param baseUrl the url the links start with
+	 */
+	public String getSparkline(Job<?, ?> job, String baseUrl, Locale locale) {
+		BuildRing ring = JobStatusCache.getRing(job, JobStatusCache.get(job));
+		String jobUrl = baseUrl + job.getShortUrl();
+		int hint = (isShowColorblindUnderlineHint() ? STYLES.length / 2 : 0);
+		ToolTips tips = new ToolTips(locale);
+		StringBuilder buf = new StringBuilder();
+		synchronized (ring) {
+			for (int i = Math.min(getBuildCount(), ring.size()) - 1; i >= 0; i--) {
+				StatusType type = ring.getType(i);
+				int number = ring.getNumber(i);
+				buf.append("<a href=\"").append(jobUrl).append(number).append("/\" tooltip=\"");
+				tips.append(buf, type, number, ring.getTime(i));
+				buf.append("\" style=\"").append(STYLES[hint + type.ordinal()]).append("\"></a>");
+			}
+		}
+		return buf.toString();
+	}
+	/**
+	 * Sorts by how many of the builds shown failed.
+	 */
+	public String getColumnSortData(Job<?, ?> job) {
+		BuildRing ring = JobStatusCache.getRing(job, JobStatusCache.get(job));
+		int failed = 0;
+		synchronized (ring) {
+			for (int i = Math.min(getBuildCount(), ring.size()) - 1; i >= 0; i--) {
+				if (ring.getType(i) == StatusType.FAILED) {
+					failed++;
+				}
+			}
+		}
+		return String.valueOf(failed);
+	}
+	/**
+	 * Escapes the markup the way an attribute needs it.
+	 */
+	private static void appendEscaped(StringBuilder buf, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '&':
+				buf.append("&amp;");
+				break;
+			case '<':
+				buf.append("&lt;");
+				break;
+			case '>':
+				buf.append("&gt;");
+				break;
+			case '"':
+				buf.append("&quot;");
+				break;
+			default:
+				buf.append(c);
+			}
+		}
+	}
+	private static String escape(String s) {
+		StringBuilder buf = new StringBuilder(s.length() + 16);
+		appendEscaped(buf, s);
+		return buf.toString();
+	}
+	private static String[] createStyles() {
+		StatusType[] types = StatusType.values();
+		String[] styles = new String[types.length * 2];
+		for (StatusType type : types) {
+			String style = "display: inline-block; width: 4px; height: 12px; margin-right: 1px; background-color: "
+				+ type.getColor() + ";";
+			styles[type.ordinal()] = style;
+			styles[types.length + type.ordinal()] = style + " border-bottom: " + type.getUnderlineStyle() + " #000;";
+		}
+		return styles;
+	}
+
+	/**
+	 * The tool-tips of one sparkline.  They go in attributes, so they are written already
+	 * escaped; everything but the build's number and time is the same from bar to bar,
+	 * and is worked out and escaped once rather than for each bar.
+	 */
+	private static class ToolTips {
+		private static final String TIME = "\u0000";
+
+		private final Locale locale;
+		private final String start;
+		/**
+		 * What comes between the number and the time, by status type, filled in as the types turn up.
+		 */
+		private final String[] middles = new String[STYLES.length / 2];
+		private final String builtAt;
+		private final String end;
+		private final boolean timeShown;
+
+		ToolTips(Locale locale) {
+			this.locale = locale;
+			this.start = "&lt;b&gt;" + escape(Messages._BuildNumber().toString(locale));
+			String builtAt = escape(Messages._builtAt(TIME).toString(locale));
+			int time = builtAt.indexOf(TIME);
+			this.timeShown = (time >= 0);
+			if (!timeShown) {
+				// a translation without the time in it
+				this.builtAt = builtAt;
+				this.end = "";
+			} else {
+				this.builtAt = builtAt.substring(0, time);
+				this.end = builtAt.substring(time + TIME.length());
+			}
+		}
+		void append(StringBuilder buf, StatusType type, int number, long time) {
+			String middle = middles[type.ordinal()];
+			if (middle == null) {
+				middle = "&lt;/b&gt; " + escape(type.getMessage(locale)) + "&lt;br/&gt;" + builtAt;
+				middles[type.ordinal()] = middle;
+			}
+			buf.append(start).append(number).append(middle);
+			if (timeShown) {
+				// as AbstractStatusesColumn.getBuildTimeString, without joining the cached strings
+				appendEscaped(buf, DateFormats.getTimeString(time, locale));
+				buf.append(", ");
+				appendEscaped(buf, DateFormats.getDateString(time, locale));
+			}
+			buf.append(end);
+		}
+	}
+
+	@Extension
+	public static class DescriptorImpl extends AbstractCompactColumnDescriptor {
+		@Override
+		public String getDisplayName() {
+			return Messages.Compact_Column_Status_Sparkline();
+		}
+		@Override
+		public String getHelpFile() {
+			return "/plugin/compact-columns/status-sparkline-column.html";
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Job;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The jobs whose builds have changed lately, for pages that keep their status cells up to date
+ * by long-polling {@link CompactColumnsPlugin#doStatusUpdates} rather than reloading.
+ * Each change gets the next sequence number; the last {@link #SIZE} changes are remembered,
+ * and a page that has fallen further behind than that is told to fetch all its cells again.
+ * A poll waits for the next change for at most {@link #TIMEOUT_MS}, so a request thread is
+ * never held for longer than that.
+ * <p>
+ * Sequence numbers start from the time the plugin was loaded, so a page from before a restart
+ * is always too far behind.
+ *
+ * @author jacob robertson
+ */
+final class StatusUpdates {
+
+	/**
+	 * How long a poll waits for a change before answering with none, well within the
+	 * time-outs of the proxies we have come across.
+	 */
+	static final long TIMEOUT_MS = 25 * 1000;
+	static final int SIZE = 1024;
+
+	private static final Object lock = new Object();
+	private static final String[] jobs = new String[SIZE];
+	private static final long first = System.currentTimeMillis();
+	private static long sequence = first;
+
+	private StatusUpdates() {
+	}
+
+	static long getSequence() {
+		synchronized (lock) {
+			return sequence;
+		}
+	}
+	static void changed(Job<?, ?> job) {
+		synchronized (lock) {
+			sequence++;
+			jobs[(int) (sequence % SIZE)] = job.getFullName();
+			lock.notifyAll();
+		}
+	}
+	/**
+	 * Waits until something changes after the given sequence number, or the time-out runs out.
+	 * @return as {@link #since}
+	 */
+	static Update await(long since, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		synchronized (lock) {
+			while (sequence == since) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0) {
+					break;
+				}
+				lock.wait(left);
+			}
+			return since(since);
+		}
+	}
+	/**
+	 * @return the changes after the given sequence number, which are none when nothing has
+	 * changed yet, or null if the caller is too far behind to be told what they were
+	 */
+	static Update since(long since) {
+		synchronized (lock) {
+			if (since < first || since > sequence || sequence - since > SIZE) {
+				return null;
+			}
+			Set<String> names = new LinkedHashSet<String>();
+			for (long i = since + 1; i <= sequence; i++) {
+				names.add(jobs[(int) (i % SIZE)]);
+			}
+			return new Update(sequence, names);
+		}
+	}
+
+	static class Update {
+		private final long sequence;
+		private final Set<String> jobs;
+
+		Update(long sequence, Set<String> jobs) {
+			this.sequence = sequence;
+			this.jobs = jobs;
+		}
+		long getSequence() {
+			return sequence;
+		}
+		/**
+		 * The full names of the jobs that changed.
+		 */
+		Set<String> getJobs() {
+			return jobs;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A row of counters that many threads can add to without contending with each other.
+ * Each thread adds into one of several stripes, picked from its id, and reads add the
+ * stripes up.  Stripes are padded apart so that they don't share cache lines.
+ *
+ * @author jacob robertson
+ */
+final class StripedCounters {
+
+	/**
+	 * Longs per cache line.
+	 */
+	private static final int PAD = 8;
+	private static final int STRIPES = getStripeCount();
+
+	private final int width;
+	private final int stride;
+	private final AtomicLongArray cells;
+
+	/**
+	 * @param width how many counters in the row
+	 */
+	StripedCounters(int width) {
+		this.width = width;
+		this.stride = ((width + PAD - 1) / PAD) * PAD + PAD;
+		this.cells = new AtomicLongArray(STRIPES * stride);
+	}
+	private static int getStripeCount() {
+		int wanted = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+		int stripes = 1;
+		while (stripes < wanted) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+	void add(int counter, long n) {
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+		cells.addAndGet(stripe * stride + counter, n);
+	}
+	long get(int counter) {
+		long sum = 0;
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			sum += cells.get(stripe * stride + counter);
+		}
+		return sum;
+	}
+	int getWidth() {
+		return width;
+	}
+	/**
+	 * Not atomic with respect to adds that happen at the same time, which only matters
+	 * to someone reading the counters while they reset them.
+	 */
+	void reset() {
+		for (int i = 0; i < cells.length(); i++) {
+			cells.set(i, 0);
+		}
+	}
+}
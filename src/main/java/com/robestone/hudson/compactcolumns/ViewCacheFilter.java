@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, Sun Microsystems, Inc., Jesse Glick
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.robestone.hudson.compactcolumns;
+
+import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.model.ListView;
+import hudson.model.TopLevelItem;
+import hudson.model.View;
+import hudson.views.ListViewColumn;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Answers repeated GETs of a list view with 304 when nothing the page shows has changed.
+ * Only views made up entirely of compact columns take part, since we can't tell when any other
+ * column changes - and even then the rest of the page (the build queue and executors) is taken
+ * as it was for up to {@link #MAX_AGE_MS}, which is why this has to be turned on in the global
+ * configuration.
+ *
+ * @author jacob robertson
+ */
+final class ViewCacheFilter implements Filter {
+
+	private static final String CACHE_CONTROL = "Cache-Control";
+	/**
+	 * The longest a page is answered with 304, even when none of its columns age.
+	 */
+	static final long MAX_AGE_MS = AbstractStatusesColumn.ONE_MINUTE_MS;
+
+	public void init(FilterConfig config) {
+	}
+	public void destroy() {
+	}
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		if (!(request instanceof HttpServletRequest) || !CompactColumnsPlugin.isConditionalViewsEnabled()) {
+			chain.doFilter(request, response);
+			return;
+		}
+		HttpServletRequest req = (HttpServletRequest) request;
+		ListView view = null;
+		if ("GET".equals(req.getMethod())) {
+			view = findView(req);
+		}
+		filter(req, (HttpServletResponse) response, chain, view);
+	}
+	/**
+	 * @param view the view the request is for, or null to let it through untouched
+	 */
+	static void filter(HttpServletRequest req, HttpServletResponse rsp, FilterChain chain, ListView view)
+			throws IOException, ServletException {
+		String etag = (view == null ? null : getETag(view, req));
+		if (etag == null) {
+			chain.doFilter(req, rsp);
+			return;
+		}
+		if (etag.equals(req.getHeader("If-None-Match"))) {
+			rsp.setHeader("ETag", etag);
+			rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		rsp.setHeader("ETag", etag);
+		rsp.setHeader(CACHE_CONTROL, "private, no-cache");
+		chain.doFilter(req, new ResponseWrapper(rsp));
+	}
+	/**
+	 * The view at the root url, or at view/name/.
+	 */
+	private static ListView findView(HttpServletRequest req) throws UnsupportedEncodingException {
+		Hudson hudson = Hudson.getInstance();
+		if (hudson == null) {
+			return null;
+		}
+		String path = req.getRequestURI().substring(req.getContextPath().length());
+		View view;
+		if (path.length() == 0 || "/".equals(path)) {
+			view = hudson.getPrimaryView();
+		} else if (path.startsWith("/view/")) {
+			String name = path.substring("/view/".length());
+			if (name.endsWith("/")) {
+				name = name.substring(0, name.length() - 1);
+			}
+			if (name.length() == 0 || name.indexOf('/') >= 0) {
+				return null;
+			}
+			view = hudson.getView(URLDecoder.decode(name, "UTF-8"));
+		} else {
+			return null;
+		}
+		if (view instanceof ListView) {
+			return (ListView) view;
+		}
+		return null;
+	}
+	/**
+	 * @return null when the view has a column we can't vouch for
+	 */
+	private static String getETag(ListView view, HttpServletRequest req) {
+		StatusFingerprint fingerprint = new StatusFingerprint();
+		// the query string changes the page too, auto_refresh for one
+		fingerprint.add(req.getRequestURI());
+		fingerprint.add(req.getQueryString());
+		fingerprint.add(view.getViewName());
+		fingerprint.add(view.getDescription());
+		fingerprint.add(view.getIncludeRegex());
+		fingerprint.add(req.getHeader("Accept-Language"));
+		fingerprint.add(CompactColumnsPlugin.getConfigVersion());
+		long period = MAX_AGE_MS;
+		boolean any = false;
+		for (ListViewColumn column : view.getColumns()) {
+			if (column instanceof AbstractCompactColumn) {
+				period = getShorterPeriod(period, ((AbstractCompactColumn) column).getAgingPeriod());
+			} else if (!(column instanceof JobNameColumn)) {
+				return null;
+			}
+			// a reconfigured view has new columns
+			fingerprint.add(System.identityHashCode(column));
+			any = true;
+		}
+		if (!any) {
+			return null;
+		}
+		fingerprint.addTimeBucket(period);
+		for (TopLevelItem item : view.getItems()) {
+			if (item instanceof Job) {
+				fingerprint.add((Job<?, ?>) item);
+			} else {
+				fingerprint.add(item.getFullName());
+			}
+		}
+		return fingerprint.toETag();
+	}
+	private static long getShorterPeriod(long a, long b) {
+		if (a <= 0) {
+			return b;
+		} else if (b <= 0) {
+			return a;
+		}
+		return Math.min(a, b);
+	}
+
+	/**
+	 * Keeps the page from telling the browser not to store it, so the browser has something
+	 * to revalidate next time.
+	 */
+	private static class ResponseWrapper extends HttpServletResponseWrapper {
+		ResponseWrapper(HttpServletResponse rsp) {
+			super(rsp);
+		}
+		@Override
+		public void setHeader(String name, String value) {
+			if (!isCacheHeader(name)) {
+				super.setHeader(name, value);
+			}
+		}
+		@Override
+		public void addHeader(String name, String value) {
+			if (!isCacheHeader(name)) {
+				super.addHeader(name, value);
+			}
+		}
+		@Override
+		public void setDateHeader(String name, long date) {
+			if (!isCacheHeader(name)) {
+				super.setDateHeader(name, date);
+			}
+		}
+		private static boolean isCacheHeader(String name) {
+			return CACHE_CONTROL.equalsIgnoreCase(name) || "Expires".equalsIgnoreCase(name)
+				|| "Pragma".equalsIgnoreCase(name) || "ETag".equalsIgnoreCase(name);
+		}
+	}
+}
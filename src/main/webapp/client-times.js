@@ -0,0 +1,108 @@
+/*
+ * Fills in the times of the compact status columns in the browser, so that the page itself
+ * doesn't depend on when it was drawn.  Links carry their build's time in "data-compacttime".
+ * Times ago are formatted with the server's own strings for the locale, fetched once, and the
+ * same rounding as AbstractStatusesColumn.getShortTimestamp.  Dates switch to the time of day
+ * when the build was today, by the server's clock, for links with "data-compacttimeofday".
+ */
+(function() {
+	var UNIT_MS = [365 * 86400000, 30 * 86400000, 86400000, 3600000, 60000, 1000];
+	var DAY_MS = 86400000;
+	var REFRESH_MS = 30000;
+	var strings = null;
+
+	// the server works in floats
+	var fround = Math.fround || function(x) { return x; };
+
+	function getBaseUrl() {
+		var scripts = document.getElementsByTagName("script");
+		for (var i = 0; i < scripts.length; i++) {
+			var src = scripts[i].getAttribute("src");
+			if (src && src.match(/client-times\.js$/)) {
+				return src.substring(0, src.length - "client-times.js".length);
+			}
+		}
+		return null;
+	}
+	function getRoundedTenths(number) {
+		var isWholeNumber = (number >= 10);
+		var value = Math.abs(number);
+		var scaled = (isWholeNumber ? value : value * 10);
+		var floor = Math.floor(scaled);
+		var rounded = floor;
+		if (scaled - floor > 0.5) {
+			rounded++;
+		}
+		if (isWholeNumber) {
+			rounded *= 10;
+		}
+		return (number < 0 ? -rounded : rounded);
+	}
+	function getShortTimestamp(diff) {
+		var time = fround(diff);
+		for (var unit = 0; unit < UNIT_MS.length; unit++) {
+			var unitMs = fround(UNIT_MS[unit]);
+			if (time >= unitMs) {
+				var tenths = getRoundedTenths(fround(time / unitMs));
+				var bucket = (tenths < 100 ? tenths : 90 + Math.floor(tenths / 10));
+				var unitStrings = strings[unit];
+				return unitStrings[Math.min(bucket, unitStrings.length - 1)];
+			}
+		}
+		return strings[UNIT_MS.length][0];
+	}
+	function update(e, now) {
+		var time = parseInt(e.getAttribute("data-compacttime"), 10);
+		var offset = e.getAttribute("data-compactoffset");
+		var text;
+		if (offset == null) {
+			if (strings == null) {
+				return;
+			}
+			text = getShortTimestamp(now - time).escapeHTML();
+		} else {
+			var timeOfDay = e.getAttribute("data-compacttimeofday");
+			if (timeOfDay == null) {
+				return;
+			}
+			if (e.compactDate == null) {
+				e.compactDate = e.innerHTML;
+			}
+			offset = parseInt(offset, 10);
+			var isToday = (Math.floor((now + offset) / DAY_MS) == Math.floor((time + offset) / DAY_MS));
+			text = (isToday ? timeOfDay.escapeHTML() : e.compactDate);
+		}
+		if (e.innerHTML != text) {
+			e.innerHTML = text;
+		}
+	}
+	function refresh(root) {
+		var now = new Date().getTime();
+		var links = (root || document).getElementsByTagName("a");
+		for (var i = 0; i < links.length; i++) {
+			if (links[i].getAttribute("data-compacttime")) {
+				update(links[i], now);
+			}
+		}
+	}
+	function start() {
+		refresh();
+		var base = getBaseUrl();
+		if (base != null) {
+			new Ajax.Request(base + "timeAgoStrings", {
+				method : "get",
+				onSuccess : function(rsp) {
+					strings = rsp.responseText.evalJSON();
+					refresh();
+				}
+			});
+		}
+		setInterval(function() { refresh(); }, REFRESH_MS);
+	}
+	window.compactColumnsTimes = { refresh : refresh };
+	if (document.addEventListener) {
+		document.addEventListener("DOMContentLoaded", start, false);
+	} else {
+		window.attachEvent("onload", start);
+	}
+})();
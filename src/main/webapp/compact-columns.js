@@ -0,0 +1,47 @@
+/*
+ * Fetches the tool-tips of the compact columns the first time the mouse goes over them.
+ * Elements carry the url of their tool-tip in a "lazytooltip" attribute.  Once loaded,
+ * the tool-tip is handed to the usual Hudson tool-tip behaviour.
+ */
+(function() {
+	function findTarget(e) {
+		while (e && e.getAttribute) {
+			if (e.getAttribute("lazytooltip")) {
+				return e;
+			}
+			e = e.parentNode;
+		}
+		return null;
+	}
+	function show(e, text, ev) {
+		e.setAttribute("tooltip", text);
+		if (window.Behaviour && Behaviour.applySubtree) {
+			Behaviour.applySubtree(e.parentNode);
+			if (e.onmouseover) {
+				e.onmouseover(ev);
+			}
+		} else {
+			e.title = text.replace(/<[^>]*>/g, "");
+		}
+	}
+	function onMouseOver(ev) {
+		ev = ev || window.event;
+		var e = findTarget(ev.target || ev.srcElement);
+		if (e == null) {
+			return;
+		}
+		var url = e.getAttribute("lazytooltip");
+		e.removeAttribute("lazytooltip");
+		new Ajax.Request(url, {
+			method : "get",
+			onSuccess : function(rsp) {
+				show(e, rsp.responseText, ev);
+			}
+		});
+	}
+	if (document.addEventListener) {
+		document.addEventListener("mouseover", onMouseOver, false);
+	} else {
+		document.attachEvent("onmouseover", onMouseOver);
+	}
+})();
@@ -0,0 +1,144 @@
+/*
+ * Keeps the cells of the compact status columns up to date without reloading the page.
+ * The page long-polls statusUpdates with the sequence number it was drawn at, taken from the
+ * column headers' "data-compactsince", and is told the names of the jobs whose builds have
+ * changed since - or gets an empty 204 when none have within the server's wait, and simply
+ * asks again.  Only those jobs' cells are then fetched again, from the "data-compactcells"
+ * url each cell carries, and swapped in place.  A page too far behind to be told which jobs
+ * changed, such as one from before a restart, fetches all its cells again.
+ */
+(function() {
+	// gives the build a moment to leave the building state before its cell is asked for
+	var SETTLE_MS = 1000;
+	var RETRY_MS = 30000;
+	var CHUNK = 25;
+	var updatesUrl = null;
+
+	function getBaseUrl() {
+		var scripts = document.getElementsByTagName("script");
+		for (var i = 0; i < scripts.length; i++) {
+			var src = scripts[i].getAttribute("src");
+			if (src && src.match(/live-updates\.js$/)) {
+				return src.substring(0, src.length - "live-updates.js".length);
+			}
+		}
+		return null;
+	}
+	function getSince() {
+		var since = null;
+		var headers = document.getElementsByTagName("th");
+		for (var i = 0; i < headers.length; i++) {
+			var value = headers[i].getAttribute("data-compactsince");
+			if (value && (since == null || Number(value) < since)) {
+				since = Number(value);
+			}
+		}
+		return since;
+	}
+	function findCells(changed) {
+		var byUrl = {};
+		var cells = document.getElementsByTagName("td");
+		for (var i = 0; i < cells.length; i++) {
+			var url = cells[i].getAttribute("data-compactcells");
+			var job = cells[i].getAttribute("data-compactjob");
+			if (url && job && (changed == null || changed[job]) && cells[i].className != "compact-columns-pending") {
+				if (!byUrl[url]) {
+					byUrl[url] = [];
+				}
+				byUrl[url].push(cells[i]);
+			}
+		}
+		return byUrl;
+	}
+	function replace(cells, html) {
+		var div = document.createElement("div");
+		div.innerHTML = html;
+		var byJob = {};
+		var rows = div.getElementsByTagName("tr");
+		for (var i = 0; i < rows.length; i++) {
+			var td = rows[i].getElementsByTagName("td")[0];
+			if (td) {
+				byJob[rows[i].getAttribute("data-compactjob")] = td;
+			}
+		}
+		for (var j = 0; j < cells.length; j++) {
+			var filled = byJob[cells[j].getAttribute("data-compactjob")];
+			if (filled && cells[j].parentNode) {
+				cells[j].parentNode.replaceChild(filled, cells[j]);
+				if (window.Behaviour && Behaviour.applySubtree) {
+					Behaviour.applySubtree(filled);
+				}
+				if (window.compactColumnsTimes) {
+					compactColumnsTimes.refresh(filled);
+				}
+			}
+		}
+	}
+	/**
+	 * @param jobs the names of the jobs to fetch again, or null for all of them
+	 */
+	function refresh(jobs) {
+		var changed = null;
+		if (jobs != null) {
+			changed = {};
+			for (var i = 0; i < jobs.length; i++) {
+				changed[jobs[i]] = true;
+			}
+		}
+		var byUrl = findCells(changed);
+		for (var url in byUrl) {
+			var cells = byUrl[url];
+			for (var start = 0; start < cells.length; start += CHUNK) {
+				fetchCells(url, cells.slice(start, start + CHUNK));
+			}
+		}
+	}
+	function fetchCells(url, cells) {
+		for (var i = 0; i < cells.length; i++) {
+			url += "&job=" + encodeURIComponent(cells[i].getAttribute("data-compactjob"));
+		}
+		new Ajax.Request(url, {
+			method : "get",
+			onSuccess : function(rsp) {
+				replace(cells, rsp.responseText);
+			}
+		});
+	}
+	function poll(since) {
+		new Ajax.Request(updatesUrl + "?since=" + since, {
+			method : "get",
+			onSuccess : function(rsp) {
+				if (rsp.status == 204) {
+					poll(since);
+					return;
+				}
+				var update = rsp.responseText.evalJSON();
+				if (update.all || update.jobs.length > 0) {
+					setTimeout(function() {
+						refresh(update.all ? null : update.jobs);
+					}, SETTLE_MS);
+				}
+				poll(update.sequence);
+			},
+			onFailure : function() {
+				setTimeout(function() {
+					poll(since);
+				}, RETRY_MS);
+			}
+		});
+	}
+	function start() {
+		var base = getBaseUrl();
+		var since = getSince();
+		if (base == null || since == null) {
+			return;
+		}
+		updatesUrl = base + "statusUpdates";
+		poll(since);
+	}
+	if (document.addEventListener) {
+		document.addEventListener("DOMContentLoaded", start, false);
+	} else {
+		window.attachEvent("onload", start);
+	}
+})();
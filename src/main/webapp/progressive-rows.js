@@ -0,0 +1,79 @@
+/*
+ * Fills in the cells of the compact status columns after the page has been drawn.
+ * Each empty cell carries the url of its column's cells in a "data-compactcells" attribute
+ * and its job's name in "data-compactjob".  Cells are fetched a few rows at a time from the
+ * top of the page down, so the first rows show up while later ones are still being worked out.
+ */
+(function() {
+	var CHUNK = 25;
+	var PENDING = "compact-columns-pending";
+
+	function findPending() {
+		var found = [];
+		var cells = document.getElementsByTagName("td");
+		for (var i = 0; i < cells.length; i++) {
+			if (cells[i].className == PENDING) {
+				found.push(cells[i]);
+			}
+		}
+		return found;
+	}
+	function fill(batch, html) {
+		var div = document.createElement("div");
+		div.innerHTML = html;
+		var byJob = {};
+		var rows = div.getElementsByTagName("tr");
+		for (var i = 0; i < rows.length; i++) {
+			var td = rows[i].getElementsByTagName("td")[0];
+			if (td) {
+				byJob[rows[i].getAttribute("data-compactjob")] = td;
+			}
+		}
+		for (var j = 0; j < batch.length; j++) {
+			var cell = batch[j];
+			var filled = byJob[cell.getAttribute("data-compactjob")];
+			if (filled) {
+				cell.parentNode.replaceChild(filled, cell);
+				if (window.Behaviour && Behaviour.applySubtree) {
+					Behaviour.applySubtree(filled);
+				}
+				if (window.compactColumnsTimes) {
+					compactColumnsTimes.refresh(filled);
+				}
+			} else {
+				cell.className = "";
+				cell.innerHTML = "";
+			}
+		}
+	}
+	function next() {
+		var pending = findPending();
+		if (pending.length == 0) {
+			return;
+		}
+		var url = pending[0].getAttribute("data-compactcells");
+		var batch = [];
+		for (var i = 0; i < pending.length && batch.length < CHUNK; i++) {
+			if (pending[i].getAttribute("data-compactcells") == url) {
+				batch.push(pending[i]);
+				pending[i].className = "";
+				url += "&job=" + encodeURIComponent(pending[i].getAttribute("data-compactjob"));
+			}
+		}
+		new Ajax.Request(url, {
+			method : "get",
+			onSuccess : function(rsp) {
+				fill(batch, rsp.responseText);
+			},
+			onFailure : function() {
+				fill(batch, "");
+			},
+			onComplete : next
+		});
+	}
+	if (document.addEventListener) {
+		document.addEventListener("DOMContentLoaded", next, false);
+	} else {
+		window.attachEvent("onload", next);
+	}
+})();
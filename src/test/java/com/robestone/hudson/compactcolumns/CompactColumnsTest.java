@@ -28,8 +28,14 @@ import hudson.model.Result;
 import hudson.model.Run;
 
 import java.awt.Color;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
+import java.math.BigDecimal;
 import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -38,22 +44,44 @@ import hudson.model.RunMap;
 
 import com.robestone.hudson.compactcolumns.AbstractStatusesColumn.TimeAgoType;
 import hudson.model.BuildHistory;
+import hudson.model.Descriptor;
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.Hudson;
 import hudson.model.ItemGroup;
+import hudson.model.ListView;
+import hudson.model.Saveable;
+import hudson.model.TopLevelItem;
 import hudson.model.User;
+import hudson.model.View;
 import hudson.security.Permission;
+import hudson.util.DescribableList;
+import hudson.views.ListViewColumn;
 import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.TestCase;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.apache.commons.io.FileUtils;
+import org.easymock.Capture;
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import org.eclipse.hudson.graph.ColorPalette;
 import org.eclipse.hudson.security.team.TeamManager;
 import org.junit.runner.RunWith;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import static org.powermock.api.easymock.PowerMock.createMock;
 import static org.powermock.api.easymock.PowerMock.mockStatic;
+import static org.powermock.api.easymock.PowerMock.replay;
 import static org.powermock.api.easymock.PowerMock.replayAll;
+import static org.powermock.api.easymock.PowerMock.verify;
 import static org.powermock.api.easymock.PowerMock.verifyAll;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -102,6 +130,48 @@ public class CompactColumnsTest extends TestCase {
         }
     }
 
+    /**
+     * The cached formats have to give the same results as creating new ones each time did,
+     * and keep doing so when asked again.
+     */
+    public void testCachedFormatsMatchAllLocales() {
+        long time = 1277416568304L;
+        Date date = new Date(time);
+        Locale[] locales = Locale.getAvailableLocales();
+        for (int pass = 0; pass < 2; pass++) {
+            for (Locale locale : locales) {
+                DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.SHORT, locale);
+                DateFormat dateTimeFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale);
+                String expectDate = new SimpleDateFormat(DateFormats.toFourDigitYearPattern(dateFormat, locale), locale).format(date);
+                String expectDateTime = new SimpleDateFormat(DateFormats.toFourDigitYearPattern(dateTimeFormat, locale), locale).format(date);
+                String expectTime = DateFormat.getTimeInstance(DateFormat.SHORT, locale).format(date);
+
+                assertEquals(expectDateTime, AbstractStatusesColumn.getBuildTimeString(time, locale, true, true, true));
+                assertEquals(expectTime + ", " + expectDate, AbstractStatusesColumn.getBuildTimeString(time, locale));
+                assertEquals(expectTime, AbstractStatusesColumn.getBuildTimeString(time, locale, false, true, false));
+                assertEquals(expectDate, AbstractStatusesColumn.getBuildTimeString(time, locale, true, false, false));
+            }
+        }
+    }
+
+    /**
+     * A full cache should drop its oldest entries, not everything it holds.
+     */
+    public void testBoundedCacheDropsOldest() {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(3);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, String.valueOf(i));
+        }
+        assertEquals(3, cache.size());
+        assertNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals("4", cache.get(4));
+        cache.put(4, "four");
+        assertEquals(3, cache.size());
+        assertEquals("2", cache.get(2));
+        assertEquals("four", cache.get(4));
+    }
+
     public void testShowDate() {
         doTestShowDate(Locale.GERMAN, "14:56", "24.06.2010");
         doTestShowDate(Locale.US, "2:56 PM", "6/24/2010");
@@ -168,6 +238,65 @@ public class CompactColumnsTest extends TestCase {
         assertEquals(expect, found);
     }
 
+    /**
+     * The rounding and cached strings have to match what BigDecimal and hudson.Messages gave us,
+     * including on the half-way values, and again once the strings are cached.
+     */
+    public void testTimeMatchesBigDecimalRounding() {
+        long[] units = {1000, 60 * 1000, 60 * 60 * 1000, AbstractStatusesColumn.ONE_DAY_MS,
+            AbstractStatusesColumn.ONE_MONTH_MS, AbstractStatusesColumn.ONE_YEAR_MS};
+        for (int pass = 0; pass < 2; pass++) {
+            for (long unit : units) {
+                for (int i = 0; i < 3000; i++) {
+                    doTestTimeMatches(unit * (i / 100f));
+                    doTestTimeMatches(unit * (i / 100f) + 1);
+                    doTestTimeMatches(unit * (i / 40f));
+                }
+            }
+            doTestTimeMatches(-5000);
+        }
+        float[] numbers = {0.05f, 0.15f, 0.25f, 1.25f, 1.35f, 9.95f, 9.96f, 10.5f, 11.5f, 99.5f, 2.5f, -1.25f, -10.5f};
+        for (float number : numbers) {
+            int scale = (number >= 10 ? 0 : 1);
+            float expect = new BigDecimal(number).setScale(scale, BigDecimal.ROUND_HALF_DOWN).floatValue();
+            assertEquals(expect, AbstractStatusesColumn.getRoundedNumber(number));
+        }
+    }
+
+    private void doTestTimeMatches(float time) {
+        assertEquals(getShortTimestampWithBigDecimal(time), AbstractStatusesColumn.getShortTimestamp(time));
+    }
+
+    /**
+     * How getShortTimestamp used to work.
+     */
+    private static String getShortTimestampWithBigDecimal(float time) {
+        long[] units = {AbstractStatusesColumn.ONE_YEAR_MS, AbstractStatusesColumn.ONE_MONTH_MS, AbstractStatusesColumn.ONE_DAY_MS,
+            AbstractStatusesColumn.ONE_HOUR_MS, AbstractStatusesColumn.ONE_MINUTE_MS, AbstractStatusesColumn.ONE_SECOND_MS};
+        for (int i = 0; i < units.length; i++) {
+            if (time >= units[i]) {
+                float number = time / units[i];
+                int scale = (number >= 10 ? 0 : 1);
+                number = new BigDecimal(number).setScale(scale, BigDecimal.ROUND_HALF_DOWN).floatValue();
+                switch (i) {
+                    case 0:
+                        return hudson.Messages.Util_year(number);
+                    case 1:
+                        return hudson.Messages.Util_month(number);
+                    case 2:
+                        return hudson.Messages.Util_day(number);
+                    case 3:
+                        return hudson.Messages.Util_hour(number);
+                    case 4:
+                        return hudson.Messages.Util_minute(number);
+                    default:
+                        return hudson.Messages.Util_second(number);
+                }
+            }
+        }
+        return hudson.Messages.Util_second(0);
+    }
+
     public void testGetBuilds() {
         doTestBuilds("SSFFUFUS", "SU", "SF", "SFU");
         doTestBuilds("FSSFFUFUS", "FSU", "FS", "FSU");
@@ -196,6 +325,33 @@ public class CompactColumnsTest extends TestCase {
      * @param expectToShow most recent status first
      */
     private void doTestBuilds(String buildsSpec, String expectToShow, AbstractStatusesColumn col) {
+        TestJobMock job = createJob(buildsSpec);
+        List<BuildInfo> builds = col.getBuilds(job, Locale.US);
+        assertEquals(expectToShow.length(), builds.size());
+        for (int i = 0; i < builds.size(); i++) {
+            char c = expectToShow.charAt(i);
+            BuildInfo build = builds.get(i);
+            switch (c) {
+                case 'S':
+                    assertEquals("Stable", build.getStatus());
+                    break;
+                case 'U':
+                    assertEquals("Unstable", build.getStatus());
+                    break;
+                case 'F':
+                    assertEquals("Failed", build.getStatus());
+                    break;
+                case 'A':
+                    assertEquals("Aborted", build.getStatus());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param buildsSpec most recent build first
+     */
+    private TestJobMock createJob(String buildsSpec) {
         TestJobMock job = createJobMock();
         TestRun previous = null;
         long time = 1000;
@@ -215,6 +371,9 @@ public class CompactColumnsTest extends TestCase {
                 case 'A':
                     result = Result.ABORTED;
                     break;
+                case 'N':
+                    result = Result.NOT_BUILT;
+                    break;
             }
             TestRun run = new TestRun(job, time - i, result);
             job.addRun(run);
@@ -224,26 +383,605 @@ public class CompactColumnsTest extends TestCase {
             previous = run;
         }
         assertEquals(String.valueOf(-time), job._getRuns().firstKey().toString());
+        return job;
+    }
+
+    /**
+     * Rendering the statuses and their tool-tips should work from the build history alone,
+     * without asking the job for a build or creating one.
+     */
+    public void testRenderDoesNotLoadRuns() {
+        TestJobMock job = createJob("USAF");
+        int runsCreated = TestRun.getCreated();
+        AllStatusesColumn col = new AllStatusesColumn(null, false, null, 0, 0);
         List<BuildInfo> builds = col.getBuilds(job, Locale.US);
-        assertEquals(expectToShow.length(), builds.size());
-        for (int i = 0; i < builds.size(); i++) {
-            char c = expectToShow.charAt(i);
-            BuildInfo build = builds.get(i);
-            switch (c) {
-                case 'S':
-                    assertEquals("Stable", build.getStatus());
-                    break;
-                case 'U':
-                    assertEquals("Unstable", build.getStatus());
-                    break;
-                case 'F':
-                    assertEquals("Failed", build.getStatus());
-                    break;
-                case 'A':
-                    assertEquals("Aborted", build.getStatus());
-                    break;
-            }
+        assertEquals(3, builds.size());
+        for (BuildInfo build : builds) {
+            String tip = col.getToolTip(build, Locale.US);
+            assertTrue(tip, tip.contains(Messages.BuildNumber() + build.getNumber()));
         }
+        col.getColumnSortData(job);
+        JobNameColorColumn nameCol = new JobNameColorColumn(true, true, true, null);
+        nameCol.getStyle(job);
+        nameCol.getToolTip(job, Locale.US);
+        assertEquals(0, job.getBuildsLoaded());
+        assertEquals(runsCreated, TestRun.getCreated());
+    }
+
+    /**
+     * The job name column's last build should be the same one the full statuses start with.
+     */
+    public void testLatestBuildMatchesGetBuilds() {
+        String[] specs = {"SSFFUFUS", "FSSFFUFUS", "UFF", "FFUU", "USF", "AAUSFAA", "USAF", "A"};
+        for (String spec : specs) {
+            TestJobMock job = createJob(spec);
+            List<BuildInfo> builds = AbstractStatusesColumn.getBuilds(job, Locale.US, false, false, true, false,
+                    AbstractStatusesColumn.TimeAgoType.DIFF, 0);
+            BuildInfo latest = AbstractStatusesColumn.getLatestBuild(job, Locale.US, false,
+                    AbstractStatusesColumn.TimeAgoType.DIFF);
+            assertEquals(spec, builds.get(0).getNumber(), latest.getNumber());
+            assertEquals(spec, builds.get(0).getStatus(), latest.getStatus());
+            assertEquals(spec, builds.get(0).getTimeAgoString(), latest.getTimeAgoString());
+        }
+    }
+
+    public void testSortKeys() {
+        doTestSortKeys("FFUS", 1000, 1000, 2);
+        doTestSortKeys("FAFS", 1000, 1000, 3);
+        doTestSortKeys("SFFU", 1000, 999, 0);
+        doTestSortKeys("FFF", 1000, 1000, 3);
+        doTestSortKeys("AS", 999, 0, 0);
+
+        // blank or unknown keys from an old config.xml sort by the latest build
+        assertEquals(AbstractStatusesColumn.SortKey.LATEST,
+                new AllStatusesColumn(null, false, null, 0, 0, "").getSortKeyType());
+        assertEquals(AbstractStatusesColumn.SortKey.LATEST,
+                new AllStatusesColumn(null, false, null, 0, 0, "NO_SUCH_KEY").getSortKeyType());
+    }
+
+    /**
+     * The most recent run is number 1000, started at 1000 ms, and each earlier run one less.
+     */
+    private void doTestSortKeys(String buildsSpec, long latest, long lastFailure, long failureStreak) {
+        TestJobMock job = createJob(buildsSpec);
+        assertEquals(buildsSpec, String.valueOf(latest),
+                new AllStatusesColumn(null, false, null, 0, 0, "LATEST").getColumnSortData(job));
+        assertEquals(buildsSpec, String.valueOf(lastFailure),
+                new AllStatusesColumn(null, false, null, 0, 0, "LAST_FAILURE").getColumnSortData(job));
+        assertEquals(buildsSpec, String.valueOf(failureStreak),
+                new AllStatusesColumn(null, false, null, 0, 0, "FAILURE_STREAK").getColumnSortData(job));
+    }
+
+    public void testBuildRing() {
+        TestJobMock job = createJob("SFUAF");
+        BuildRing ring = BuildRing.scan(job.getBuildHistoryData());
+        assertEquals(5, ring.size());
+        assertEquals(1000, ring.getNumber(0));
+        assertEquals(BuildInfo.StatusType.STABLE, ring.getType(0));
+        assertEquals(BuildInfo.StatusType.ABORTED, ring.getType(3));
+        assertTrue(ring.onCompleted(1001, 1001, Result.FAILURE));
+        assertFalse(ring.onCompleted(999, 999, Result.SUCCESS));
+        assertEquals(6, ring.size());
+        assertEquals(BuildInfo.StatusType.FAILED, ring.getType(0));
+        assertEquals(1000, ring.getNumber(1));
+        assertEquals("1", new StatusSparklineColumn(null, 3).getColumnSortData(job));
+        assertEquals("2", new StatusSparklineColumn(null, 0).getColumnSortData(job));
+        assertEquals("0", new StatusSparklineColumn(null, 1).getColumnSortData(job));
+
+        // oldest on the left, each bar linked to its build with its tool-tip escaped
+        String sparkline = new StatusSparklineColumn(null, 3).getSparkline(job, "/", Locale.US);
+        assertEquals(3, sparkline.split("<a ").length - 1);
+        int unstable = sparkline.indexOf("href=\"/job/testJob/998/\"");
+        int failed = sparkline.indexOf("href=\"/job/testJob/999/\"");
+        int stable = sparkline.indexOf("href=\"/job/testJob/1000/\"");
+        assertTrue(sparkline, 0 <= unstable && unstable < failed && failed < stable);
+        String tip = "tooltip=\"&lt;b&gt;" + Messages._BuildNumber().toString(Locale.US) + "1000&lt;/b&gt; "
+                + BuildInfo.StatusType.STABLE.getMessage(Locale.US) + "&lt;br/&gt;Built @ &lt;b&gt;"
+                + AbstractStatusesColumn.getBuildTimeString(1000, Locale.US) + "&lt;/b&gt;\"";
+        assertTrue(sparkline, sparkline.contains(tip));
+        assertTrue(sparkline, sparkline.contains(BuildInfo.FAILED_COLOR));
+        assertFalse(sparkline, sparkline.contains("border-bottom"));
+        assertTrue(new StatusSparklineColumn("underlinehint", 3).getSparkline(job, "/", Locale.US)
+                .contains("border-bottom"));
+        assertEquals(5, new StatusSparklineColumn(null, 0).getSparkline(job, "/", Locale.US).split("<a ").length - 1);
+        assertEquals(0, job.getBuildsLoaded());
+    }
+
+    /**
+     * A ring scanned while the last completed build is still marked as building misses it,
+     * and mustn't be kept.
+     */
+    public void testBuildRingNotKeptWhenBehind() {
+        TestJobMock job = createJob("SF");
+        TestRun last = (TestRun) job._getRuns().get(-1000);
+        BuildSnapshot lastCompleted = new BuildSnapshot(1000, 1000, 0, Result.SUCCESS, false);
+        JobStatus status = new JobStatus(0, lastCompleted, lastCompleted, null, null, lastCompleted,
+                null, 0, 1, false);
+        last.setBuilding(true);
+        BuildRing behind = JobStatusCache.getRing(job, status);
+        assertEquals(999, behind.getNumber(0));
+        assertNotSame(behind, JobStatusCache.getRing(job, status));
+
+        last.setBuilding(false);
+        BuildRing ring = JobStatusCache.getRing(job, status);
+        assertEquals(1000, ring.getNumber(0));
+        assertSame(ring, JobStatusCache.getRing(job, status));
+    }
+
+    /**
+     * A job's snapshot should be taken once, and taken again after anything that could change it.
+     */
+    public void testStatusCacheInvalidation() {
+        TestJobMock job = createJob("SFU");
+        Run<?, ?> run = (Run<?, ?>) job._getRuns().get(-1000);
+        JobStatusCache.RunListenerImpl runListener = new JobStatusCache.RunListenerImpl();
+        JobStatusCache.ItemListenerImpl itemListener = new JobStatusCache.ItemListenerImpl();
+        ColumnMetrics.setEnabled(true);
+        try {
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            runListener.onStarted(run, null);
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            runListener.onCompleted(run, null);
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            runListener.onDeleted(run);
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            itemListener.onRenamed(job, "testJob", "renamedJob");
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            new JobStatusCache.SaveableListenerImpl().onChange(job, null);
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            itemListener.onDeleted(job);
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+
+            // a job loaded again under the same name gets an entry of its own
+            TestJobMock reloaded = createJob("FS");
+            assertEquals(1000, JobStatusCache.get(reloaded).getLastFailed().getNumber());
+            assertEquals(999, JobStatusCache.get(job).getLastFailed().getNumber());
+            assertStatusCached(job, true);
+
+            itemListener.onLoaded();
+            assertStatusCached(job, false);
+            assertStatusCached(job, true);
+        } finally {
+            ColumnMetrics.setEnabled(false);
+        }
+        assertEquals(0, job.getBuildsLoaded());
+    }
+
+    private void assertStatusCached(Job<?, ?> job, boolean hit) {
+        long hits = ColumnMetrics.STATUS_CACHE_HITS.getCount();
+        long misses = ColumnMetrics.STATUS_CACHE_MISSES.getCount();
+        assertEquals(1000, JobStatusCache.get(job).getLast().getNumber());
+        assertEquals(hit ? hits + 1 : hits, ColumnMetrics.STATUS_CACHE_HITS.getCount());
+        assertEquals(hit ? misses : misses + 1, ColumnMetrics.STATUS_CACHE_MISSES.getCount());
+    }
+
+    public void testAbortedIndex() {
+        TestJobMock job = createJob("SFFAUA");
+        AbortedIndex index = AbortedIndex.scan(job.getBuildHistoryData(), 0);
+        assertEquals(997, index.getFound().getNumber());
+        assertEquals(4, index.getExamined());
+        BuildSnapshot lastCompleted = new BuildSnapshot(1000, 1000, 0, Result.SUCCESS, false);
+        assertTrue(index.covers(lastCompleted, 0));
+        assertTrue(index.covers(lastCompleted, 2));
+        assertFalse(index.covers(new BuildSnapshot(1001, 1001, 0, Result.SUCCESS, false), 0));
+
+        BuildSnapshot aborted = new BuildSnapshot(1001, 1001, 0, Result.ABORTED, false);
+        AbortedIndex completed = index.onCompleted(aborted);
+        assertSame(aborted, completed.getFound());
+        assertTrue(completed.covers(aborted, 0));
+        assertFalse(completed.covers(lastCompleted, 0));
+        completed = index.onCompleted(new BuildSnapshot(1001, 1001, 0, Result.FAILURE, false));
+        assertEquals(997, completed.getFound().getNumber());
+        assertNull(index.onCompleted(new BuildSnapshot(999, 999, 0, Result.ABORTED, false)));
+
+        assertSame(index, index.onDeleted(1000));
+        assertNull(index.onDeleted(997));
+        assertEquals(0, job.getBuildsLoaded());
+    }
+
+    /**
+     * An index that stopped short of the aborted build only answers for columns that look no deeper.
+     */
+    public void testAbortedIndexDepth() {
+        TestJobMock job = createJob("SFFAUA");
+        AbortedIndex index = AbortedIndex.scan(job.getBuildHistoryData(), 2);
+        assertNull(index.getFound());
+        assertEquals(2, index.getExamined());
+        BuildSnapshot lastCompleted = new BuildSnapshot(1000, 1000, 0, Result.SUCCESS, false);
+        assertTrue(index.covers(lastCompleted, 2));
+        assertTrue(index.covers(lastCompleted, 1));
+        assertFalse(index.covers(lastCompleted, 3));
+        assertFalse(index.covers(lastCompleted, 0));
+
+        JobStatus status = new JobStatus(0, lastCompleted, lastCompleted, null, null, lastCompleted,
+                null, 0, 1, false);
+        assertNull(JobStatusCache.getLastAborted(job, status, 2));
+        assertEquals(997, JobStatusCache.getLastAborted(job, status, 0).getNumber());
+        assertEquals(997, JobStatusCache.getLastAborted(job, status, 4).getNumber());
+
+        // the aborted build drifts out of a shallow column's depth as builds complete
+        index = AbortedIndex.scan(job.getBuildHistoryData(), 0);
+        assertTrue(index.covers(lastCompleted, 3));
+        assertNull(index.getFound(3));
+        assertEquals(997, index.getFound(4).getNumber());
+        BuildSnapshot next = new BuildSnapshot(1001, 1001, 0, Result.SUCCESS, false);
+        index = index.onCompleted(next);
+        assertTrue(index.covers(next, 4));
+        assertNull(index.getFound(4));
+        assertEquals(997, index.getFound(5).getNumber());
+        assertEquals(997, index.getFound(0).getNumber());
+        assertEquals(0, job.getBuildsLoaded());
+    }
+
+    /**
+     * Tool-tips asked for by build number should only be found for builds a cell would show,
+     * without walking the history to look for any other number.
+     */
+    public void testToolTipByNumber() {
+        TestJobMock job = createJob("SAF");
+        JobStatusCache.get(job);
+        ColumnMetrics.setEnabled(true);
+        try {
+            long traversals = ColumnMetrics.HISTORY_TRAVERSALS.getCount();
+            assertNotNull(AbstractStatusesColumn.getToolTip(job, 1000, Locale.US, TimeAgoType.DIFF, false));
+            assertNotNull(AbstractStatusesColumn.getToolTip(job, 998, Locale.US, TimeAgoType.DIFF, false));
+            assertNull(AbstractStatusesColumn.getToolTip(job, 999, Locale.US, TimeAgoType.DIFF, false));
+            assertNull(AbstractStatusesColumn.getToolTip(job, 1, Locale.US, TimeAgoType.DIFF, false));
+            assertEquals(traversals, ColumnMetrics.HISTORY_TRAVERSALS.getCount());
+        } finally {
+            ColumnMetrics.setEnabled(false);
+        }
+        job = createJob("AA");
+        assertNotNull(AbstractStatusesColumn.getToolTip(job, 1000, Locale.US, TimeAgoType.DIFF, false));
+        assertNull(AbstractStatusesColumn.getToolTip(job, 999, Locale.US, TimeAgoType.DIFF, false));
+        assertEquals(0, job.getBuildsLoaded());
+    }
+
+    /**
+     * The walk should stop once the failed, unstable and stable builds are found,
+     * without going on to look for an aborted build nobody shows.
+     */
+    public void testStatusResolverStopsEarly() {
+        TestJobMock job = createJob("SUFSSSSSSA");
+        ColumnMetrics.setEnabled(true);
+        try {
+            JobStatus status = StatusResolver.resolve(job.getBuildHistoryData(),
+                    job.getBuildHistoryData().getLast(), 0, 0);
+            assertEquals(3, ColumnMetrics.RECORDS_SCANNED.getCount());
+            assertEquals(998, status.getLastFailed().getNumber());
+            assertFalse(status.isAbortedKnown(0));
+        } finally {
+            ColumnMetrics.setEnabled(false);
+        }
+        assertEquals(991, JobStatusCache.getLastAborted(job, JobStatusCache.get(job), 0).getNumber());
+    }
+
+    /**
+     * Builds that were not built are never shown, even when there is nothing else.
+     */
+    public void testNotBuiltNotShown() {
+        AllStatusesColumn col = new AllStatusesColumn(null, false, null, 0);
+        assertTrue(col.getBuilds(createJob("N"), Locale.US).isEmpty());
+        List<BuildInfo> builds = col.getBuilds(createJob("NS"), Locale.US);
+        assertEquals(1, builds.size());
+        assertEquals(999, builds.get(0).getNumber());
+        builds = new LastSuccessAndFailedColumn().getBuilds(createJob("NA"), Locale.US);
+        assertEquals(1, builds.size());
+        assertEquals(999, builds.get(0).getNumber());
+    }
+
+    public void testStatusFeed() {
+        StatusFeed feed = new StatusFeed(createView(createJob("SF")));
+        StringWriter json = new StringWriter();
+        feed.writeJSON(new PrintWriter(json), Locale.US);
+        JSONObject parsed = JSONObject.fromObject(json.toString());
+        assertEquals("wall", parsed.getString("view"));
+        JSONObject jobJson = parsed.getJSONArray("jobs").getJSONObject(0);
+        assertEquals("testJob", jobJson.getString("name"));
+        assertEquals("job/testJob/", jobJson.getString("url"));
+        JSONArray builds = jobJson.getJSONArray("builds");
+        assertEquals(2, builds.size());
+        assertEquals(1000, builds.getJSONObject(0).getInt("number"));
+        assertEquals("SUCCESS", builds.getJSONObject(0).getString("result"));
+        assertEquals(1000, builds.getJSONObject(0).getLong("timestamp"));
+        assertTrue(builds.getJSONObject(0).getBoolean("latest"));
+        assertEquals(999, builds.getJSONObject(1).getInt("number"));
+        assertEquals("FAILURE", builds.getJSONObject(1).getString("result"));
+        assertFalse(builds.getJSONObject(1).getBoolean("latest"));
+
+        StringWriter csv = new StringWriter();
+        feed.writeCSV(new PrintWriter(csv), Locale.US);
+        assertEquals("job,number,result,timestamp,duration,latest\r\n"
+                + "testJob,1000,SUCCESS,1000,0,true\r\n"
+                + "testJob,999,FAILURE,999,0,false\r\n", csv.toString());
+    }
+
+    /**
+     * A poller that has the current statuses gets a 304, until a build changes them -
+     * even one we were never told about.
+     */
+    public void testStatusFeedNotModified() throws Exception {
+        TestJobMock job = createJob("SF");
+        View view = createView(job);
+        String etag = new StatusFeed(view).getETag("json");
+        assertEquals(etag, new StatusFeed(view).getETag("json"));
+        assertFalse(etag.equals(new StatusFeed(view).getETag("csv")));
+
+        StaplerRequest req = createMock(StaplerRequest.class);
+        StaplerResponse rsp = createMock(StaplerResponse.class);
+        expect(req.getHeader("If-None-Match")).andReturn(etag);
+        rsp.setHeader("ETag", etag);
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        replay(req, rsp);
+        new StatusFeed(view).write(req, rsp, false);
+        verify(req, rsp);
+
+        TestRun run = new TestRun(job, 1001, Result.UNSTABLE);
+        run.setPrevious((Run<?, ?>) job._getRuns().get(-1000));
+        job.addRun(run);
+        String changed = new StatusFeed(view).getETag("json");
+        assertFalse(etag.equals(changed));
+        new JobStatusCache.RunListenerImpl().onCompleted(run, null);
+        assertFalse(changed.equals(new StatusFeed(view).getETag("json")));
+
+        req = createMock(StaplerRequest.class);
+        rsp = createMock(StaplerResponse.class);
+        StringWriter out = new StringWriter();
+        expect(req.getHeader("If-None-Match")).andReturn(etag);
+        expect(req.getLocale()).andReturn(Locale.US);
+        rsp.setHeader("ETag", new StatusFeed(view).getETag("json"));
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        rsp.setContentType("application/json;charset=UTF-8");
+        expect(rsp.getWriter()).andReturn(new PrintWriter(out));
+        replay(req, rsp);
+        new StatusFeed(view).write(req, rsp, false);
+        verify(req, rsp);
+        assertTrue(out.toString(), out.toString().contains("\"number\":1001"));
+    }
+
+    private View createView(TestJobMock job) {
+        List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+        items.add(job);
+        View view = createMock(View.class);
+        expect(view.getItems()).andReturn(items).anyTimes();
+        expect(view.getViewName()).andReturn("wall").anyTimes();
+        replay(view);
+        return view;
+    }
+
+    /**
+     * A view is drawn, then answered with 304, then drawn again once a build changes it.
+     */
+    @SuppressWarnings("unchecked")
+    public void testViewCacheFilter() throws Exception {
+        TestJobMock job = createJob("SF");
+        List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+        items.add(job);
+        List<ListViewColumn> columns = Arrays.<ListViewColumn>asList(
+                new JobNameColorColumn(true, false, true, null), new AllStatusesColumn(null, false, null, 0));
+        ListView view = createMock(ListView.class);
+        expect(view.getItems()).andReturn(items).anyTimes();
+        expect(view.getColumns()).andReturn(
+                new DescribableList<ListViewColumn, Descriptor<ListViewColumn>>(Saveable.NOOP, columns)).anyTimes();
+        expect(view.getViewName()).andReturn("wall").anyTimes();
+        expect(view.getDescription()).andReturn("Everything").anyTimes();
+        expect(view.getIncludeRegex()).andReturn(null).anyTimes();
+        replay(view);
+
+        String etag = assertViewDrawn(view, null, null);
+        assertViewNotModified(view, null, etag);
+        assertViewDrawn(view, "auto_refresh=true", etag);
+        assertViewNotModified(view, null, etag);
+
+        TestRun run = new TestRun(job, 1001, Result.FAILURE);
+        run.setPrevious((Run<?, ?>) job._getRuns().get(-1000));
+        job.addRun(run);
+        String changed = assertViewDrawn(view, null, etag);
+        assertFalse(etag.equals(changed));
+        assertViewNotModified(view, null, changed);
+    }
+
+    private String assertViewDrawn(ListView view, String query, String ifNoneMatch) throws Exception {
+        HttpServletRequest req = createViewRequest(query, ifNoneMatch);
+        HttpServletResponse rsp = createMock(HttpServletResponse.class);
+        Capture<String> etag = new Capture<String>();
+        rsp.setHeader(eq("ETag"), capture(etag));
+        rsp.setHeader("Cache-Control", "private, no-cache");
+        replay(req, rsp);
+        CountingChain chain = new CountingChain();
+        ViewCacheFilter.filter(req, rsp, chain, view);
+        verify(req, rsp);
+        assertEquals(1, chain.calls);
+        assertFalse(etag.getValue().equals(ifNoneMatch));
+        return etag.getValue();
+    }
+
+    private void assertViewNotModified(ListView view, String query, String ifNoneMatch) throws Exception {
+        HttpServletRequest req = createViewRequest(query, ifNoneMatch);
+        HttpServletResponse rsp = createMock(HttpServletResponse.class);
+        rsp.setHeader("ETag", ifNoneMatch);
+        rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        replay(req, rsp);
+        CountingChain chain = new CountingChain();
+        ViewCacheFilter.filter(req, rsp, chain, view);
+        verify(req, rsp);
+        assertEquals(0, chain.calls);
+    }
+
+    private HttpServletRequest createViewRequest(String query, String ifNoneMatch) {
+        HttpServletRequest req = createMock(HttpServletRequest.class);
+        expect(req.getRequestURI()).andReturn("/view/wall/").anyTimes();
+        expect(req.getQueryString()).andReturn(query).anyTimes();
+        expect(req.getHeader("Accept-Language")).andReturn("en-US").anyTimes();
+        expect(req.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+        return req;
+    }
+
+    private static class CountingChain implements FilterChain {
+        private int calls;
+
+        public void doFilter(ServletRequest request, ServletResponse response) {
+            calls++;
+        }
+    }
+
+    /**
+     * A cell is kept with markers for its times ago, which are filled in each time it is used.
+     */
+    public void testFragmentCache() {
+        TestJobMock job = createJob("SF");
+        AllStatusesColumn col = new AllStatusesColumn(null, false, null, 0);
+        FragmentCache.configure(10, 1024 * 1024);
+        ColumnMetrics.setEnabled(true);
+        try {
+            assertNull(col.getCachedCell(job, Locale.US, "/"));
+            FragmentCache.Version version = col.getCellVersion(job);
+            List<BuildInfo> template = col.getTemplateBuilds(job, Locale.US);
+            assertEquals(FragmentCache.getMarker(0), template.get(0).getTimeAgoString());
+            String html = "<a>" + FragmentCache.getMarker(0) + "</a><a>" + FragmentCache.getMarker(1) + "</a>";
+            List<BuildInfo> builds = col.getBuilds(job, Locale.US);
+            assertEquals(builds.get(1).getNumber(), template.get(1).getNumber());
+            assertEquals(builds.get(1).getColor(), template.get(1).getColor());
+            assertEquals(builds.get(1).isLatestBuild(), template.get(1).isLatestBuild());
+            String filled = "<a>" + builds.get(0).getTimeAgoString() + "</a><a>" + builds.get(1).getTimeAgoString() + "</a>";
+            assertEquals(filled, col.putCachedCell(job, Locale.US, "/", version, template, html));
+
+            assertEquals(filled, col.getCachedCell(job, Locale.US, "/"));
+            assertEquals(filled, col.getCachedCell(job, Locale.US, "/"));
+            assertEquals(2, ColumnMetrics.FRAGMENT_HITS.getCount());
+            assertNull(col.getCachedCell(job, Locale.GERMAN, "/"));
+            assertNull(col.getCachedCell(job, Locale.US, "/other/"));
+            assertNull(new AllStatusesColumn(null, false, null, 0).getCachedCell(job, Locale.US, "/"));
+
+            assertEquals("<b>&lt;1 &amp; 2&gt;</b>", FragmentCache.put(col, job, Locale.US, "/", version, 0,
+                    "<b>" + FragmentCache.getMarker(0) + "</b>", Arrays.asList("<1 & 2>")));
+            assertNull(FragmentCache.get(col, job, Locale.US, "/", 0, Arrays.<String>asList()));
+            assertNull(FragmentCache.get(col, job, Locale.US, "/", 1, Arrays.asList("now")));
+            assertEquals("<b>now</b>", FragmentCache.get(col, job, Locale.US, "/", 0, Arrays.asList("now")));
+        } finally {
+            ColumnMetrics.setEnabled(false);
+            FragmentCache.configure(0, 0);
+        }
+    }
+
+    /**
+     * A cell is thrown away when a build event comes in, and when the last record changes
+     * without one - such as a build leaving the building state after its completion event.
+     */
+    public void testFragmentCacheInvalidation() {
+        TestJobMock job = createJob("SF");
+        JobNameColorColumn col = new JobNameColorColumn(true, false, false, null);
+        FragmentCache.configure(10, 1024 * 1024);
+        try {
+            col.putCachedCell(job, Locale.US, "/", col.getCellVersion(job), col.getCellStamp(), "job");
+            assertEquals("job", col.getCachedCell(job, Locale.US, "/"));
+            Run<?, ?> last = (Run<?, ?>) job._getRuns().get(-1000);
+            new JobStatusCache.RunListenerImpl().onCompleted(last, null);
+            assertNull(col.getCachedCell(job, Locale.US, "/"));
+
+            TestRun run = new TestRun(job, 1001, Result.SUCCESS);
+            run.setPrevious(last);
+            run.setBuilding(true);
+            col.putCachedCell(job, Locale.US, "/", col.getCellVersion(job), col.getCellStamp(), "job");
+            job.addRun(run);
+            assertNull(col.getCachedCell(job, Locale.US, "/"));
+
+            col.putCachedCell(job, Locale.US, "/", col.getCellVersion(job), col.getCellStamp(), "building");
+            new JobStatusCache.RunListenerImpl().onCompleted(run, null);
+            col.putCachedCell(job, Locale.US, "/", col.getCellVersion(job), col.getCellStamp(), "built");
+            assertEquals("built", col.getCachedCell(job, Locale.US, "/"));
+            run.setBuilding(false);
+            assertNull(col.getCachedCell(job, Locale.US, "/"));
+
+            col.putCachedCell(job, Locale.US, "/", col.getCellVersion(job), col.getCellStamp(), "job");
+            new JobStatusCache.ItemListenerImpl().onDeleted(job);
+            assertNull(col.getCachedCell(job, Locale.US, "/"));
+        } finally {
+            FragmentCache.configure(0, 0);
+        }
+    }
+
+    public void testStatusUpdates() {
+        TestJobMock job = createJob("S");
+        long since = StatusUpdates.getSequence();
+        StatusUpdates.Update update = StatusUpdates.since(since);
+        assertEquals(since, update.getSequence());
+        assertTrue(update.getJobs().isEmpty());
+
+        StatusUpdates.changed(job);
+        StatusUpdates.changed(job);
+        update = StatusUpdates.since(since);
+        assertEquals(since + 2, update.getSequence());
+        assertEquals(1, update.getJobs().size());
+        assertTrue(update.getJobs().contains("testJob"));
+        assertTrue(StatusUpdates.since(since + 2).getJobs().isEmpty());
+
+        assertNull(StatusUpdates.since(since + 3));
+        assertNull(StatusUpdates.since(0));
+    }
+
+    /**
+     * A page more than a ring's worth of changes behind has to fetch everything again.
+     */
+    public void testStatusUpdatesOverflow() {
+        TestJobMock job = createJob("S");
+        long since = StatusUpdates.getSequence();
+        for (int i = 0; i < StatusUpdates.SIZE; i++) {
+            StatusUpdates.changed(job);
+        }
+        assertEquals(since + StatusUpdates.SIZE, StatusUpdates.since(since).getSequence());
+        StatusUpdates.changed(job);
+        assertNull(StatusUpdates.since(since));
+        assertEquals(since + StatusUpdates.SIZE + 1, StatusUpdates.since(since + 1).getSequence());
+    }
+
+    /**
+     * A poll waits for the next change, but for no longer than its time-out.
+     */
+    public void testStatusUpdatesWait() throws Exception {
+        final TestJobMock job = createJob("S");
+        long since = StatusUpdates.getSequence();
+        long start = System.currentTimeMillis();
+        assertTrue(StatusUpdates.await(since, 100).getJobs().isEmpty());
+        assertTrue(System.currentTimeMillis() - start >= 100);
+
+        Thread changer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                StatusUpdates.changed(job);
+            }
+        };
+        start = System.currentTimeMillis();
+        changer.start();
+        StatusUpdates.Update update = StatusUpdates.await(since, 10000);
+        changer.join();
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        assertEquals(since + 1, update.getSequence());
+        assertTrue(update.getJobs().contains("testJob"));
+
+        // a page too far behind is told so straight away
+        start = System.currentTimeMillis();
+        assertNull(StatusUpdates.await(0, 10000));
+        assertTrue(System.currentTimeMillis() - start < 10000);
     }
 
     public void testStableColor() throws Exception {
@@ -267,19 +1005,31 @@ public class CompactColumnsTest extends TestCase {
     @SuppressWarnings({"unchecked", "rawtypes"})
     private static class TestRun extends Run {
 
+        private static int created;
+        private boolean building;
+
         public TestRun(Job job, long timestamp, Result result) {
             super(job, timestamp);
+            created++;
             this.number = (int) timestamp;
             this.setResult(result);
         }
 
+        public static int getCreated() {
+            return created;
+        }
+
         public void setPrevious(Run previous) {
             this.previousBuild = previous;
         }
 
+        public void setBuilding(boolean building) {
+            this.building = building;
+        }
+
         @Override
         public boolean isBuilding() {
-            return false;
+            return building;
         }
 
         @Override
@@ -298,8 +1048,10 @@ public class CompactColumnsTest extends TestCase {
         expect(hudson.getTeamManager()).andReturn(teamManager).anyTimes();
         expect(hudson.isTeamManagementEnabled()).andReturn(false).anyTimes();
         expect(hudson.getRootDir()).andReturn(FileUtils.getTempDirectory()).anyTimes();
+        expect(hudson.getPlugin(CompactColumnsPlugin.class)).andReturn(null).anyTimes();
         mockStatic(Hudson.class);
         expect(Hudson.getInstance()).andReturn(hudson).anyTimes();
+        expect(Hudson.getAuthentication()).andReturn(Hudson.ANONYMOUS).anyTimes();
         mockStatic(User.class);
         expect(User.current()).andReturn(null);
         replayAll();
@@ -314,6 +1066,7 @@ public class CompactColumnsTest extends TestCase {
     private static class TestJobMock extends FreeStyleProject {
 
         private RunMap runs = new RunMap(this);
+        private int buildsLoaded;
 
         public TestJobMock(String name) {
             super((ItemGroup) null, name);
@@ -343,9 +1096,70 @@ public class CompactColumnsTest extends TestCase {
             return true; // bypass non-existent ACL
         }
 
+        @Override
+        public String getFullName() {
+            return getName(); // no parent to prefix
+        }
+
+        @Override
+        public String getShortUrl() {
+            return "job/" + getName() + "/";
+        }
+
+        @Override
+        public String getUrl() {
+            return getShortUrl();
+        }
+
         @Override
         public BuildHistory getBuildHistoryData() {
             return runs;
         }
+
+        @Override
+        public FreeStyleBuild getBuildByNumber(int n) {
+            buildsLoaded++;
+            return super.getBuildByNumber(n);
+        }
+
+        @Override
+        public FreeStyleBuild getFirstBuild() {
+            buildsLoaded++;
+            return super.getFirstBuild();
+        }
+
+        @Override
+        public FreeStyleBuild getLastBuild() {
+            buildsLoaded++;
+            return super.getLastBuild();
+        }
+
+        @Override
+        public FreeStyleBuild getLastCompletedBuild() {
+            buildsLoaded++;
+            return super.getLastCompletedBuild();
+        }
+
+        @Override
+        public FreeStyleBuild getLastFailedBuild() {
+            buildsLoaded++;
+            return super.getLastFailedBuild();
+        }
+
+        @Override
+        public FreeStyleBuild getLastUnstableBuild() {
+            buildsLoaded++;
+            return super.getLastUnstableBuild();
+        }
+
+        @Override
+        public FreeStyleBuild getLastStableBuild() {
+            buildsLoaded++;
+            return super.getLastStableBuild();
+        }
+
+        public int getBuildsLoaded() {
+            return buildsLoaded;
+        }
     }
 }